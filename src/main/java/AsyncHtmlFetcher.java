@@ -0,0 +1,155 @@
+import java.io.Closeable;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Fetches pages without blocking a thread per request, using
+ * {@link HttpClient}. Requests wait on the network inside the client, so a few
+ * threads keep any number of requests in flight, and HTTP/2 servers get many
+ * requests multiplexed over a single connection. The results match
+ * {@link HtmlFetcher}: only pages with status 200 and an HTML content type are
+ * returned, with their lines joined by a line feed, and redirects are followed
+ * up to the given limit.
+ *
+ * @author Adon Anglon
+ */
+public class AsyncHtmlFetcher implements PageFetcher, Closeable {
+	/** The log4j2 logger. */
+	private static final Logger log = LogManager.getLogger();
+
+	/** The default number of threads handling responses. */
+	public static final int DEFAULT_THREADS = 2;
+
+	/** The default time to wait for a response once the request is sent. */
+	public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(30);
+
+	/** How long to wait for a connection to open. */
+	private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+
+	/** How long to wait for a response before the page is given up on. */
+	private final Duration timeout;
+
+	/** The threads handling responses. */
+	private final ExecutorService executor;
+
+	/** The client sending the requests. */
+	private final HttpClient client;
+
+	/**
+	 * Initializes a fetcher with the default number of threads.
+	 */
+	public AsyncHtmlFetcher() {
+		this(DEFAULT_THREADS);
+	}
+
+	/**
+	 * Initializes a fetcher whose responses are handled by the given number of
+	 * threads, with the default response timeout.
+	 *
+	 * @param threads the number of threads handling responses
+	 */
+	public AsyncHtmlFetcher(int threads) {
+		this(threads, DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * Initializes a fetcher whose responses are handled by the given number of
+	 * threads. A page whose response does not arrive within the timeout is
+	 * treated like any other page that could not be fetched, so a server that
+	 * never answers cannot hold up the crawl.
+	 *
+	 * @param threads the number of threads handling responses
+	 * @param timeout how long to wait for a response once the request is sent
+	 */
+	public AsyncHtmlFetcher(int threads, Duration timeout) {
+		this.timeout = timeout;
+		this.executor = Executors.newFixedThreadPool(Math.max(1, threads), task -> {
+			Thread thread = new Thread(task);
+			thread.setName("Fetcher" + thread.getName());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.client = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_2)
+				.followRedirects(HttpClient.Redirect.NEVER)
+				.connectTimeout(CONNECT_TIMEOUT)
+				.executor(executor)
+				.build();
+	}
+
+	@Override
+	public CompletableFuture<String> fetch(URL url, int redirects) {
+		HttpRequest request;
+		try {
+			request = HttpRequest.newBuilder(url.toURI()).timeout(timeout).GET().build();
+		}
+		catch(URISyntaxException | IllegalArgumentException e) {
+			log.debug("Unable to fetch malformed url " + url);
+			return CompletableFuture.completedFuture(null);
+		}
+
+		return client.sendAsync(request, htmlOnly())
+				.thenCompose(response -> {
+					if(response.statusCode() >= 300 && response.statusCode() < 400 && redirects > 0) {
+						var location = response.headers().firstValue("Location");
+						if(location.isPresent()) {
+							try {
+								return fetch(new URL(url, location.get()), redirects - 1);
+							}
+							catch(MalformedURLException e) {
+								log.debug("Unable to follow malformed redirect " + location.get());
+							}
+						}
+					}
+
+					String body = response.body();
+					return CompletableFuture.completedFuture(
+							body == null ? null : String.join("\n", body.lines().toList()));
+				})
+				.exceptionally(e -> {
+					log.debug("An IO error was thrown and needs to be handled.");
+					return null;
+				});
+	}
+
+	/**
+	 * Returns a body handler that only keeps the body of successful HTML
+	 * responses, and discards every other body without decoding it.
+	 *
+	 * @return the body handler
+	 */
+	private static BodyHandler<String> htmlOnly() {
+		return info -> {
+			boolean html = info.headers().firstValue("Content-Type")
+					.map(type -> type.startsWith("text/html"))
+					.orElse(false);
+			return info.statusCode() == 200 && html
+					? BodySubscribers.ofString(StandardCharsets.UTF_8)
+					: BodySubscribers.replacing(null);
+		};
+	}
+
+	/**
+	 * Stops the threads handling responses. Requests still in flight are not
+	 * completed.
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,173 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A seen-set backed by a Bloom filter, which uses a fixed number of bits per
+ * key instead of holding the keys themselves. At a false positive rate of 0.1%
+ * each key takes under two bytes, so tens of millions of crawled links fit in
+ * a few dozen megabytes. A key that was added is always reported as seen, but a
+ * new key is wrongly reported as seen at about the false positive rate, so a
+ * crawl may skip that fraction of pages. An optional {@link DiskSeenSet}
+ * confirms every key the filter reports as seen, which makes the set exact at
+ * the cost of a disk read for each repeated key.
+ *
+ * This class is thread safe.
+ *
+ * @author Adon Anglon
+ */
+public class BloomSeenSet implements SeenSet {
+	/** The default rate new keys are wrongly reported as seen. */
+	public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.001;
+
+	/**
+	 * The number of locks keys are spread across, so two threads adding the
+	 * same key at once cannot both report it as new.
+	 */
+	private static final int STRIPES = 64;
+
+	/** The bits of the filter. */
+	private final AtomicLongArray bits;
+
+	/** The number of bits in the filter. */
+	private final long length;
+
+	/** The number of bits set for each key. */
+	private final int hashes;
+
+	/** The locks keys are spread across. */
+	private final Object[] locks;
+
+	/** The number of keys added. */
+	private final AtomicLong count;
+
+	/** Confirms keys the filter reports as seen, or {@code null} to trust it. */
+	private final DiskSeenSet confirm;
+
+	/**
+	 * Initializes an empty filter sized for the expected number of keys.
+	 *
+	 * @param expected the expected number of keys
+	 * @param rate the rate new keys may be wrongly reported as seen once the
+	 *   expected number of keys were added, between 0 and 1
+	 */
+	public BloomSeenSet(long expected, double rate) {
+		this(expected, rate, null);
+	}
+
+	/**
+	 * Initializes an empty filter sized for the expected number of keys, with
+	 * an exact set on disk that confirms keys the filter reports as seen.
+	 *
+	 * @param expected the expected number of keys
+	 * @param rate the rate new keys may be wrongly reported as seen once the
+	 *   expected number of keys were added, between 0 and 1
+	 * @param confirm the exact set that confirms keys the filter reports as
+	 *   seen, or {@code null} to trust the filter
+	 * @throws IllegalArgumentException if the rate is not between 0 and 1
+	 */
+	public BloomSeenSet(long expected, double rate, DiskSeenSet confirm) {
+		if(!(rate > 0 && rate < 1)) {
+			throw new IllegalArgumentException("False positive rate must be between 0 and 1: " + rate);
+		}
+		expected = Math.max(1, expected);
+
+		// the standard sizes m = -n ln(p) / ln(2)^2 and k = (m / n) ln(2)
+		double ln2 = Math.log(2);
+		long words = (long) Math.ceil(-expected * Math.log(rate) / (ln2 * ln2) / Long.SIZE);
+		words = Math.max(1, Math.min(Integer.MAX_VALUE - 8, words));
+
+		this.bits = new AtomicLongArray((int) words);
+		this.length = words * Long.SIZE;
+		this.hashes = (int) Math.max(1, Math.round((double) length / expected * ln2));
+		this.locks = new Object[STRIPES];
+		for(int i = 0; i < locks.length; i++) {
+			locks[i] = new Object();
+		}
+		this.count = new AtomicLong();
+		this.confirm = confirm;
+	}
+
+	@Override
+	public boolean add(String key) {
+		long hash = hash(key);
+		long step = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+
+		synchronized(locks[(int) (hash >>> 58) % STRIPES]) {
+			boolean added = false;
+
+			// double hashing gives every bit position from two hashes
+			for(int i = 0; i < hashes; i++) {
+				long bit = Math.floorMod(hash + i * step, length);
+				long mask = 1L << (bit % Long.SIZE);
+				long previous = bits.getAndAccumulate((int) (bit / Long.SIZE), mask, (a, b) -> a | b);
+				added |= (previous & mask) == 0;
+			}
+
+			if(confirm != null) {
+				if(added) {
+					confirm.record(key);
+				}
+				else {
+					added = confirm.add(key);
+				}
+			}
+
+			if(added) {
+				count.incrementAndGet();
+			}
+			return added;
+		}
+	}
+
+	@Override
+	public long size() {
+		return count.get();
+	}
+
+	/**
+	 * Returns the number of bits used for each key added so far.
+	 *
+	 * @return the bits per key
+	 */
+	public double bitsPerKey() {
+		long keys = count.get();
+		return keys == 0 ? length : (double) length / keys;
+	}
+
+	/**
+	 * Hashes the key with 64-bit FNV-1a, mixed so every bit depends on the
+	 * whole key.
+	 *
+	 * @param key the key to hash
+	 * @return the hash
+	 */
+	private static long hash(String key) {
+		long hash = 0xCBF29CE484222325L;
+		for(int i = 0; i < key.length(); i++) {
+			hash ^= key.charAt(i);
+			hash *= 0x100000001B3L;
+		}
+		return mix(hash);
+	}
+
+	/**
+	 * Scrambles the bits of a hash, using the finalizer of MurmurHash3.
+	 *
+	 * @param hash the hash to scramble
+	 * @return the scrambled hash
+	 */
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xFF51AFD7ED558CCDL;
+		hash ^= hash >>> 33;
+		hash *= 0xC4CEB9FE1A85EC53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("[keys: %d, bits: %d, hashes: %d, bits per key: %.1f]", count.get(), length, hashes,
+				bitsPerKey());
+	}
+}
@@ -0,0 +1,332 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URL;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Keeps idle HTTP/1.1 connections open so later requests to the same host and
+ * port can reuse them, skipping the TCP connect and (for HTTPS) the TLS
+ * handshake. Connections left idle for longer than the idle timeout are closed,
+ * and only a few idle connections are kept for each host.
+ *
+ * This class is thread safe, but each connection should only be used by one
+ * thread at a time, between {@link #acquire(URL)} and {@link #release(Connection)}.
+ *
+ * @author Adon Anglon
+ */
+public class ConnectionPool implements Closeable {
+	/** The log4j2 logger. */
+	private static final Logger log = LogManager.getLogger();
+
+	/** The default time a connection may stay idle before it is closed. */
+	public static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofSeconds(15);
+
+	/** The default number of idle connections kept for each host. */
+	public static final int DEFAULT_MAX_IDLE = 8;
+
+	/** The idle connections of each host and port, most recently used last. */
+	private final Map<String, Deque<Connection>> idle;
+
+	/** The time a connection may stay idle before it is closed, in nanoseconds. */
+	private final long idleTimeout;
+
+	/** The number of idle connections kept for each host. */
+	private final int maxIdle;
+
+	/** When every host was last checked for expired connections. */
+	private long lastSweep;
+
+	/** The number of connections opened. */
+	private final AtomicLong opened;
+
+	/** The number of times an idle connection was reused. */
+	private final AtomicLong reused;
+
+	/** The number of idle connections closed for being idle too long. */
+	private final AtomicLong evicted;
+
+	/**
+	 * Initializes an empty pool with the default idle timeout and limit.
+	 */
+	public ConnectionPool() {
+		this(DEFAULT_IDLE_TIMEOUT, DEFAULT_MAX_IDLE);
+	}
+
+	/**
+	 * Initializes an empty pool.
+	 *
+	 * @param idleTimeout the time a connection may stay idle before it is closed
+	 * @param maxIdle the number of idle connections kept for each host
+	 */
+	public ConnectionPool(Duration idleTimeout, int maxIdle) {
+		this.idle = new HashMap<>();
+		this.idleTimeout = idleTimeout.toNanos();
+		this.maxIdle = maxIdle;
+		this.lastSweep = System.nanoTime();
+		this.opened = new AtomicLong();
+		this.reused = new AtomicLong();
+		this.evicted = new AtomicLong();
+	}
+
+	/**
+	 * Returns an idle connection to the host and port of the url if there is
+	 * one, or opens a new connection otherwise.
+	 *
+	 * @param url the url to connect to
+	 * @return a connection for the url
+	 * @throws IOException if unable to open a new connection
+	 */
+	public Connection acquire(URL url) throws IOException {
+		String key = key(url);
+
+		synchronized(this) {
+			sweep();
+			Deque<Connection> connections = idle.get(key);
+			while(connections != null && !connections.isEmpty()) {
+				Connection connection = connections.pollLast();
+				if(isExpired(connection)) {
+					evict(connection);
+				}
+				else if(!connection.socket.isClosed()) {
+					reused.incrementAndGet();
+					connection.reused = true;
+					return connection;
+				}
+			}
+		}
+
+		return open(url);
+	}
+
+	/**
+	 * Opens a new connection to the host and port of the url, without looking
+	 * for an idle one.
+	 *
+	 * @param url the url to connect to
+	 * @return a new connection for the url
+	 * @throws IOException if unable to open the connection
+	 */
+	public Connection open(URL url) throws IOException {
+		Connection connection = new Connection(key(url), HttpsFetcher.openConnection(url));
+		opened.incrementAndGet();
+		return connection;
+	}
+
+	/**
+	 * Returns a connection whose response was read completely, so it can be
+	 * reused by a later request. The connection is closed instead if the host
+	 * already has enough idle connections.
+	 *
+	 * @param connection the connection to return
+	 */
+	public void release(Connection connection) {
+		synchronized(this) {
+			Deque<Connection> connections = idle.computeIfAbsent(connection.key, key -> new ArrayDeque<>());
+			if(connections.size() < maxIdle) {
+				connection.idleSince = System.nanoTime();
+				connections.addLast(connection);
+				return;
+			}
+		}
+		connection.close();
+	}
+
+	/**
+	 * Closes every idle connection to a host once the idle timeout has passed
+	 * since the last sweep. Must be called while holding the lock.
+	 */
+	private void sweep() {
+		long now = System.nanoTime();
+		if(now - lastSweep < idleTimeout) {
+			return;
+		}
+		lastSweep = now;
+
+		Iterator<Deque<Connection>> hosts = idle.values().iterator();
+		while(hosts.hasNext()) {
+			Deque<Connection> connections = hosts.next();
+			connections.removeIf(connection -> {
+				if(isExpired(connection)) {
+					evict(connection);
+					return true;
+				}
+				return false;
+			});
+			if(connections.isEmpty()) {
+				hosts.remove();
+			}
+		}
+	}
+
+	/**
+	 * Determines if a connection has been idle for longer than the idle timeout.
+	 *
+	 * @param connection the idle connection
+	 * @return true if the connection should be closed
+	 */
+	private boolean isExpired(Connection connection) {
+		return System.nanoTime() - connection.idleSince > idleTimeout;
+	}
+
+	/**
+	 * Closes an idle connection that expired.
+	 *
+	 * @param connection the connection to close
+	 */
+	private void evict(Connection connection) {
+		evicted.incrementAndGet();
+		connection.close();
+	}
+
+	/**
+	 * Returns the key connections for the url are pooled under.
+	 *
+	 * @param url the url to connect to
+	 * @return the protocol, host and port of the url
+	 */
+	private static String key(URL url) {
+		int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+		return url.getProtocol().toLowerCase() + "://" + url.getHost().toLowerCase() + ":" + port;
+	}
+
+	/**
+	 * Returns the number of connections opened.
+	 *
+	 * @return the number of connections opened
+	 */
+	public long getOpened() {
+		return opened.get();
+	}
+
+	/**
+	 * Returns the number of times an idle connection was reused instead of
+	 * opening a new one.
+	 *
+	 * @return the number of reused connections
+	 */
+	public long getReused() {
+		return reused.get();
+	}
+
+	/**
+	 * Returns the number of idle connections closed for being idle too long.
+	 *
+	 * @return the number of evicted connections
+	 */
+	public long getEvicted() {
+		return evicted.get();
+	}
+
+	/**
+	 * Closes every idle connection. The pool may still be used afterwards.
+	 */
+	@Override
+	public synchronized void close() {
+		for(Deque<Connection> connections : idle.values()) {
+			for(Connection connection : connections) {
+				connection.close();
+			}
+		}
+		idle.clear();
+	}
+
+	@Override
+	public String toString() {
+		return "[opened: " + opened.get() + ", reused: " + reused.get() + ", evicted: " + evicted.get() + "]";
+	}
+
+	/**
+	 * A connection to a host and port, with buffered streams that stay with the
+	 * connection while it is reused.
+	 */
+	public static class Connection implements Closeable {
+		/** The host and port this connection is pooled under. */
+		private final String key;
+
+		/** The socket of the connection. */
+		private final Socket socket;
+
+		/** The buffered input of the socket. */
+		private final InputStream input;
+
+		/** The buffered output of the socket. */
+		private final OutputStream output;
+
+		/** When this connection was last returned to the pool. */
+		private long idleSince;
+
+		/** Whether this connection was used by an earlier request. */
+		private boolean reused;
+
+		/**
+		 * Wraps a newly opened socket.
+		 *
+		 * @param key the host and port the connection is pooled under
+		 * @param socket the socket of the connection
+		 * @throws IOException if unable to get the socket streams
+		 */
+		private Connection(String key, Socket socket) throws IOException {
+			this.key = key;
+			this.socket = socket;
+			this.input = new BufferedInputStream(socket.getInputStream());
+			this.output = new BufferedOutputStream(socket.getOutputStream());
+			this.idleSince = System.nanoTime();
+			this.reused = false;
+		}
+
+		/**
+		 * Returns the buffered input of the connection.
+		 *
+		 * @return the input stream
+		 */
+		public InputStream getInputStream() {
+			return input;
+		}
+
+		/**
+		 * Returns the buffered output of the connection.
+		 *
+		 * @return the output stream
+		 */
+		public OutputStream getOutputStream() {
+			return output;
+		}
+
+		/**
+		 * Determines if this connection was used by an earlier request, in which
+		 * case the server may have closed it while it was idle.
+		 *
+		 * @return true if the connection was reused
+		 */
+		public boolean isReused() {
+			return reused;
+		}
+
+		/**
+		 * Closes the socket, ignoring any errors.
+		 */
+		@Override
+		public void close() {
+			try {
+				socket.close();
+			}
+			catch(IOException e) {
+				log.debug("An IO error was thrown and needs to be handled.");
+			}
+		}
+	}
+}
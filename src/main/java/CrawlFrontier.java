@@ -0,0 +1,184 @@
+import java.net.URL;
+import java.util.Locale;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The links waiting to be crawled, shared by every worker of a crawl. A link
+ * is only accepted the first time it is seen, and only while the crawl budget
+ * lasts, so no page is fetched twice and the budget is never overspent no
+ * matter how many workers find links at once. Accepted links are handed out
+ * in breadth-first order: the shallowest link first, then the link found
+ * first, whichever worker asks for one.
+ *
+ * The links seen are kept in a {@link SeenSet}, which may be a Bloom filter for
+ * crawls too large to hold every link in memory.
+ *
+ * This class is thread safe.
+ *
+ * @author Adon Anglon
+ */
+public class CrawlFrontier {
+	/** The key of every link seen so far. */
+	private final SeenSet visited;
+
+	/** The number of links that may still be accepted. */
+	private final AtomicInteger budget;
+
+	/** The accepted links that have not been handed out yet. */
+	private final PriorityBlockingQueue<Link> pending;
+
+	/** Numbers the accepted links in the order they were found. */
+	private final AtomicLong found;
+
+	/**
+	 * Initializes an empty frontier that remembers every link seen exactly.
+	 *
+	 * @param budget the most links to accept, including the first one
+	 */
+	public CrawlFrontier(int budget) {
+		this(budget, SeenSet.exact());
+	}
+
+	/**
+	 * Initializes an empty frontier that remembers the links seen in the given
+	 * set.
+	 *
+	 * @param budget the most links to accept, including the first one
+	 * @param visited the empty set to remember the links seen in
+	 */
+	public CrawlFrontier(int budget, SeenSet visited) {
+		this.visited = visited;
+		this.budget = new AtomicInteger(budget);
+		this.pending = new PriorityBlockingQueue<>();
+		this.found = new AtomicLong();
+	}
+
+	/**
+	 * Accepts the link if it was not seen before and there is budget left for
+	 * it. Every accepted link should be followed by exactly one call to
+	 * {@link #poll()}.
+	 *
+	 * @param url the normalized link to crawl
+	 * @param depth the number of links followed from the first page to reach it
+	 * @return true if the link was accepted
+	 */
+	public boolean offer(URL url, int depth) {
+		if(budget.get() <= 0 || !visited.add(key(url))) {
+			return false;
+		}
+
+		// only links that were never seen before take from the budget
+		if(budget.getAndUpdate(left -> left > 0 ? left - 1 : 0) <= 0) {
+			return false;
+		}
+
+		pending.add(new Link(url, depth, found.getAndIncrement()));
+		return true;
+	}
+
+	/**
+	 * Removes the shallowest accepted link that has not been handed out yet.
+	 *
+	 * @return the next link to crawl, or {@code null} if there is none
+	 */
+	public Link poll() {
+		return pending.poll();
+	}
+
+	/**
+	 * Determines if more links may be accepted, so callers can stop offering
+	 * links early.
+	 *
+	 * @return true if there is budget left
+	 */
+	public boolean hasBudget() {
+		return budget.get() > 0;
+	}
+
+	/**
+	 * Returns the number of distinct links seen, whether or not they were
+	 * accepted.
+	 *
+	 * @return the number of links seen
+	 */
+	public long seen() {
+		return visited.size();
+	}
+
+	/**
+	 * Returns the key a link is deduplicated by. The protocol and host are not
+	 * case sensitive and the default port may be left out, so those are made
+	 * the same for every link to a page.
+	 *
+	 * @param url the normalized link
+	 * @return the key of the link
+	 */
+	private static String key(URL url) {
+		StringBuilder key = new StringBuilder();
+		key.append(url.getProtocol().toLowerCase(Locale.ROOT)).append("://");
+		key.append(url.getHost().toLowerCase(Locale.ROOT));
+		if(url.getPort() != -1 && url.getPort() != url.getDefaultPort()) {
+			key.append(':').append(url.getPort());
+		}
+		key.append(url.getFile().isEmpty() ? "/" : url.getFile());
+		return key.toString();
+	}
+
+	/**
+	 * An accepted link and how deep in the crawl it was found.
+	 */
+	public static class Link implements Comparable<Link> {
+		/** The link to crawl. */
+		private final URL url;
+
+		/** The number of links followed from the first page to reach it. */
+		private final int depth;
+
+		/** The order the link was accepted in. */
+		private final long order;
+
+		/**
+		 * Initializes an accepted link.
+		 *
+		 * @param url the link to crawl
+		 * @param depth the number of links followed from the first page to reach it
+		 * @param order the order the link was accepted in
+		 */
+		public Link(URL url, int depth, long order) {
+			this.url = url;
+			this.depth = depth;
+			this.order = order;
+		}
+
+		/**
+		 * Returns the link to crawl.
+		 *
+		 * @return the url
+		 */
+		public URL getUrl() {
+			return url;
+		}
+
+		/**
+		 * Returns the number of links followed from the first page to reach it.
+		 *
+		 * @return the depth
+		 */
+		public int getDepth() {
+			return depth;
+		}
+
+		@Override
+		public int compareTo(Link o) {
+			int compare = Integer.compare(this.depth, o.depth);
+			return compare != 0 ? compare : Long.compare(this.order, o.order);
+		}
+
+		@Override
+		public String toString() {
+			return url + " (depth " + depth + ")";
+		}
+	}
+}
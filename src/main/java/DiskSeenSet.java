@@ -0,0 +1,320 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An exact seen-set whose keys are kept on disk in a single append-only file.
+ * Only a 32-bit fingerprint and the file offset of each key are kept in
+ * memory, in hash tables spread across many locks. Checking a new key never
+ * touches the disk unless its fingerprint collides, and checking a key that
+ * was already added reads just that one record. This uses 12 bytes of memory
+ * per key no matter how long the keys are. It is meant to confirm the keys a
+ * {@link BloomSeenSet} reports as seen rather than to be used on its own.
+ *
+ * Failures to read or write the file are thrown as
+ * {@link UncheckedIOException}, so a key is never reported as new after it
+ * failed to be recorded.
+ *
+ * This class is thread safe.
+ *
+ * @author Adon Anglon
+ */
+public class DiskSeenSet implements SeenSet, Closeable {
+	/** The number of tables the keys are spread across, which must be a power of two. */
+	private static final int BUCKETS = 1024;
+
+	/** The directory the key file is in. */
+	private final Path directory;
+
+	/** The key file. */
+	private final Path file;
+
+	/** The open key file, read and written at explicit positions. */
+	private final FileChannel channel;
+
+	/** The offset the next key is appended at. */
+	private final AtomicLong end;
+
+	/** The fingerprints and offsets of the keys in each bucket, each also its own lock. */
+	private final Table[] tables;
+
+	/** The number of keys added. */
+	private final AtomicLong count;
+
+	/**
+	 * Initializes an empty set in a new temporary directory.
+	 *
+	 * @throws IOException if unable to create the directory or key file
+	 */
+	public DiskSeenSet() throws IOException {
+		this(Files.createTempDirectory("seen"));
+	}
+
+	/**
+	 * Initializes an empty set in the directory, which is created if needed.
+	 * Any key file left in the directory is replaced.
+	 *
+	 * @param directory the directory to keep the key file in
+	 * @throws IOException if unable to create the directory or key file
+	 */
+	public DiskSeenSet(Path directory) throws IOException {
+		this.directory = Files.createDirectories(directory);
+		this.file = directory.resolve("seen.dat");
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		this.end = new AtomicLong();
+		this.tables = new Table[BUCKETS];
+		for(int i = 0; i < tables.length; i++) {
+			tables[i] = new Table();
+		}
+		this.count = new AtomicLong();
+	}
+
+	/**
+	 * Adds the key if it was not seen before.
+	 *
+	 * @throws UncheckedIOException if unable to read or write the key file
+	 */
+	@Override
+	public boolean add(String key) {
+		long hash = hash(key);
+		byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+		Table table = tables[bucket(hash)];
+
+		synchronized(table) {
+			try {
+				if(contains(table, (int) hash, bytes)) {
+					return false;
+				}
+				table.put((int) hash, append(bytes));
+			}
+			catch(IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		count.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Adds a key that is known to be new without checking for it first.
+	 *
+	 * @param key the new key
+	 * @throws UncheckedIOException if unable to write the key file
+	 */
+	public void record(String key) {
+		long hash = hash(key);
+		Table table = tables[bucket(hash)];
+
+		synchronized(table) {
+			try {
+				table.put((int) hash, append(key.getBytes(StandardCharsets.UTF_8)));
+			}
+			catch(IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		count.incrementAndGet();
+	}
+
+	@Override
+	public long size() {
+		return count.get();
+	}
+
+	/**
+	 * Determines if the table holds the key, reading only the records whose
+	 * fingerprint matches. Must be called while holding the lock of the table.
+	 *
+	 * @param table the table of the key
+	 * @param fingerprint the fingerprint of the key
+	 * @param key the encoded key to find
+	 * @return true if the key was added before
+	 * @throws IOException if unable to read the key file
+	 */
+	private boolean contains(Table table, int fingerprint, byte[] key) throws IOException {
+		int mask = table.offsets.length - 1;
+		for(int slot = Table.slot(fingerprint, mask); table.offsets[slot] != 0; slot = (slot + 1) & mask) {
+			if(table.fingerprints[slot] == fingerprint && Arrays.equals(read(table.offsets[slot] - 1), key)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Appends a key to the end of the key file, prefixed by its length.
+	 *
+	 * @param key the encoded key
+	 * @return the offset the key was written at
+	 * @throws IOException if unable to write the key file
+	 */
+	private long append(byte[] key) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + key.length);
+		buffer.putInt(key.length).put(key).flip();
+
+		// each key gets its own range of the file, so keys can be written at once
+		long offset = end.getAndAdd(buffer.remaining());
+		long position = offset;
+		while(buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+		return offset;
+	}
+
+	/**
+	 * Reads the key written at the offset.
+	 *
+	 * @param offset the offset the key was written at
+	 * @return the encoded key
+	 * @throws IOException if unable to read the key file
+	 */
+	private byte[] read(long offset) throws IOException {
+		ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+		fill(length, offset);
+		ByteBuffer key = ByteBuffer.allocate(length.getInt(0));
+		fill(key, offset + Integer.BYTES);
+		return key.array();
+	}
+
+	/**
+	 * Reads from the key file until the buffer is full.
+	 *
+	 * @param buffer the buffer to fill
+	 * @param position the offset to start reading at
+	 * @throws IOException if unable to read the key file or it ends early
+	 */
+	private void fill(ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position());
+			if(read < 0) {
+				throw new EOFException("Key file ended before offset " + (position + buffer.limit()) + ".");
+			}
+		}
+	}
+
+	/**
+	 * Hashes the key with 64-bit FNV-1a. The top bits pick the bucket and the
+	 * bottom bits are the fingerprint, so the two are independent.
+	 *
+	 * @param key the key
+	 * @return the hash
+	 */
+	private static long hash(String key) {
+		long hash = 0xCBF29CE484222325L;
+		for(int i = 0; i < key.length(); i++) {
+			hash ^= key.charAt(i);
+			hash *= 0x100000001B3L;
+		}
+		return hash ^ (hash >>> 31);
+	}
+
+	/**
+	 * Returns the bucket of a hash.
+	 *
+	 * @param hash the hash of a key
+	 * @return the bucket number
+	 */
+	private static int bucket(long hash) {
+		return (int) (hash >>> (Long.SIZE - Integer.numberOfTrailingZeros(BUCKETS)));
+	}
+
+	/**
+	 * Closes and deletes the key file and the directory.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			channel.close();
+		}
+		finally {
+			Files.deleteIfExists(file);
+			Files.deleteIfExists(directory);
+		}
+	}
+
+	/**
+	 * A hash table from fingerprints to the offsets of their keys, with linear
+	 * probing. Different keys may share a fingerprint, so a fingerprint may
+	 * appear more than once.
+	 */
+	private static class Table {
+		/** The fingerprint in each slot. */
+		private int[] fingerprints;
+
+		/** The offset of the key in each slot plus one, or 0 if the slot is empty. */
+		private long[] offsets;
+
+		/** The number of keys in the table. */
+		private int size;
+
+		/**
+		 * Initializes an empty table.
+		 */
+		private Table() {
+			this.fingerprints = new int[16];
+			this.offsets = new long[16];
+			this.size = 0;
+		}
+
+		/**
+		 * Adds a key to the table, doubling the table once it is half full.
+		 *
+		 * @param fingerprint the fingerprint of the key
+		 * @param offset the offset the key was written at
+		 */
+		private void put(int fingerprint, long offset) {
+			if((size + 1) * 2 > offsets.length) {
+				int[] oldFingerprints = fingerprints;
+				long[] oldOffsets = offsets;
+				fingerprints = new int[oldOffsets.length * 2];
+				offsets = new long[oldOffsets.length * 2];
+				for(int i = 0; i < oldOffsets.length; i++) {
+					if(oldOffsets[i] != 0) {
+						insert(oldFingerprints[i], oldOffsets[i]);
+					}
+				}
+			}
+			insert(fingerprint, offset + 1);
+			size++;
+		}
+
+		/**
+		 * Puts an entry in the first empty slot from its home slot.
+		 *
+		 * @param fingerprint the fingerprint of the key
+		 * @param stored the offset of the key plus one
+		 */
+		private void insert(int fingerprint, long stored) {
+			int mask = offsets.length - 1;
+			int slot = slot(fingerprint, mask);
+			while(offsets[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			fingerprints[slot] = fingerprint;
+			offsets[slot] = stored;
+		}
+
+		/**
+		 * Returns the home slot of a fingerprint.
+		 *
+		 * @param fingerprint the fingerprint of a key
+		 * @param mask the number of slots minus one
+		 * @return the slot to start probing at
+		 */
+		private static int slot(int fingerprint, int mask) {
+			return Integer.rotateLeft(fingerprint * 0x9E3779B9, 16) & mask;
+		}
+	}
+}
@@ -1,7 +1,13 @@
 import java.net.URL;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import opennlp.tools.stemmer.snowball.SnowballStemmer;
 
 /**
  * Class responsible for running this project based on the provided command-line
@@ -29,17 +35,49 @@ public class Driver {
 		IndexBuilder indexBuilder = null;
 		QueryBuilder queryBuilder = null;
 		WorkQueue queue = null;
-		Path input, output;
+		Path input, streamed = null;
+
+		TextAnalyzer analyzer = getAnalyzer(map);
 
+		//Documents identical to one already read reuse its postings instead of being analyzed
+		DuplicateFilter filter = map.hasFlag("-dedupe") ? new DuplicateFilter() : null;
 		
-		if(map.hasFlag("-threads")) {
+		if(map.hasFlag("-threads") || map.hasFlag("-adaptive")) {
 			Integer threads = map.getInteger("-threads");
 			//Queue initialized with default 5 threads if invalid map value
 			if(threads == null || threads <= 0) {
-				queue = new WorkQueue();
+				threads = map.hasFlag("-adaptive") ? 1 : WorkQueue.DEFAULT;
+			}
+
+			//Per-worker deques with work stealing suit many tiny tasks
+			if(map.hasFlag("-steal")) {
+				queue = new StealingWorkQueue(threads);
 			}
 			else {
-				queue = new WorkQueue(threads);
+				//Bounds the tasks waiting in the queue, with -policy deciding what happens when full
+				int capacity = map.getInteger("-capacity", WorkQueue.UNBOUNDED);
+				WorkQueue.Policy policy = WorkQueue.Policy.BLOCK;
+				if(map.hasValue("-policy")) {
+					try {
+						policy = WorkQueue.Policy.valueOf(map.getString("-policy").toUpperCase().replace('-', '_'));
+					}
+					catch(IllegalArgumentException e) {
+						System.out.println("Unknown queue policy: " + map.getString("-policy"));
+					}
+				}
+				if(capacity <= 0) {
+					capacity = WorkQueue.UNBOUNDED;
+				}
+
+				//Grows from -threads up to the -adaptive maximum as tasks wait and block
+				if(map.hasFlag("-adaptive")) {
+					int max = map.getInteger("-adaptive", WorkQueue.DEFAULT_MAX);
+					queue = new WorkQueue(threads, Math.max(threads, max), WorkQueue.DEFAULT_KEEP_ALIVE,
+							capacity, policy);
+				}
+				else {
+					queue = new WorkQueue(threads, capacity, policy);
+				}
 			}
 
 			safeIndex = new ThreadSafeInvertedIndex();
@@ -49,9 +87,77 @@ public class Driver {
 				String url = map.getString("-html");
 				int maxCrawl = map.getInteger("-max", 1);
 				
+				//Fetches run on their own larger pool so slow servers do not starve the parsers
+				WorkQueue fetchQueue = queue;
+				WorkQueue parseQueue = queue;
+				WorkQueue indexQueue = queue;
+				if(map.hasFlag("-fetchers")) {
+					int fetchers = map.getInteger("-fetchers", WebCrawlerBuilder.DEFAULT_FETCHERS);
+					fetchQueue = new WorkQueue(fetchers > 0 ? fetchers : WebCrawlerBuilder.DEFAULT_FETCHERS);
+
+					//Parsing keeps -threads workers and indexing gets -indexers, each behind a bounded handoff
+					int handoff = map.getInteger("-handoff", WebCrawlerBuilder.DEFAULT_HANDOFF);
+					int indexers = map.getInteger("-indexers", threads);
+					handoff = handoff > 0 ? handoff : WebCrawlerBuilder.DEFAULT_HANDOFF;
+					parseQueue = new WorkQueue(threads, handoff, WorkQueue.Policy.BLOCK);
+					indexQueue = new WorkQueue(indexers > 0 ? indexers : threads, handoff,
+							WorkQueue.Policy.BLOCK);
+				}
+
+				//Requests are sent without blocking and answered by -async threads instead of one worker each
+				PageFetcher fetcher = PageFetcher.blocking();
+				AsyncHtmlFetcher async = null;
+				if(map.hasFlag("-async")) {
+					int clients = map.getInteger("-async", AsyncHtmlFetcher.DEFAULT_THREADS);
+					async = new AsyncHtmlFetcher(clients > 0 ? clients : AsyncHtmlFetcher.DEFAULT_THREADS);
+					fetcher = async;
+				}
+
+				//Requests to each host start -polite milliseconds apart with at most -perhost in flight
+				PoliteFetcher polite = null;
+				if(map.hasFlag("-polite")) {
+					long delay = map.getInteger("-polite", (int) PoliteFetcher.DEFAULT_DELAY.toMillis());
+					int perHost = map.getInteger("-perhost", PoliteFetcher.DEFAULT_PER_HOST);
+					//A blocking fetch holds a fetch worker, while an async fetch only needs a thread to start it
+					Executor senders = async != null ? Runnable::run : fetchQueue::execute;
+					polite = new PoliteFetcher(fetcher, senders,
+							perHost > 0 ? perHost : PoliteFetcher.DEFAULT_PER_HOST,
+							Duration.ofMillis(Math.max(0, delay)));
+					fetcher = polite;
+				}
+
+				//Links seen go in a Bloom filter with the -bloom false positive rate, confirmed on disk with -confirm
+				SeenSet seen = SeenSet.exact();
+				DiskSeenSet confirm = null;
+
 				try {
-					WebCrawlerBuilder webBuilder = new WebCrawlerBuilder(safeIndex, queue);
-					webBuilder.build(url, maxCrawl);
+					if(map.hasFlag("-bloom")) {
+						double rate = BloomSeenSet.DEFAULT_FALSE_POSITIVE_RATE;
+						if(map.hasValue("-bloom")) {
+							try {
+								rate = Double.parseDouble(map.getString("-bloom"));
+							}
+							catch(NumberFormatException e) {
+								System.out.println("Invalid false positive rate: " + map.getString("-bloom"));
+							}
+						}
+						if(!(rate > 0 && rate < 1)) {
+							rate = BloomSeenSet.DEFAULT_FALSE_POSITIVE_RATE;
+						}
+						confirm = map.hasFlag("-confirm") ? new DiskSeenSet() : null;
+						seen = new BloomSeenSet(maxCrawl, rate, confirm);
+					}
+
+					WebCrawlerBuilder webBuilder = new WebCrawlerBuilder(safeIndex, fetchQueue, parseQueue,
+							indexQueue, analyzer, filter, fetcher);
+					webBuilder.build(url, maxCrawl, seen);
+
+					if(map.hasFlag("-metrics")) {
+						System.out.println("connections: " + HttpsFetcher.getPool());
+						if(polite != null) {
+							System.out.println("politeness: " + polite);
+						}
+					}
 				}
 				catch(Exception e) {
 					if(url == null) {
@@ -61,19 +167,78 @@ public class Driver {
 						System.out.println("Unable to build the inverted index from url: " + url.toString());
 					}
 				}
+				finally {
+					if(fetchQueue != queue) {
+						fetchQueue.join();
+						parseQueue.join();
+						indexQueue.join();
+					}
+					if(polite != null) {
+						polite.close();
+					}
+					if(async != null) {
+						async.close();
+					}
+					if(confirm != null) {
+						try {
+							confirm.close();
+						}
+						catch(Exception e) {
+							System.out.println("Unable to delete the confirmed links.");
+						}
+					}
+				}
+			}
+			else if(map.hasFlag("-pipeline")) {
+				//Queue capacity between stages, with -threads analyzing and -readers reading
+				int capacity = map.getInteger("-pipeline", PipelinedIndexBuilder.DEFAULT_CAPACITY);
+				int readers = map.getInteger("-readers", PipelinedIndexBuilder.DEFAULT_READERS);
+				indexBuilder = new PipelinedIndexBuilder(safeIndex, analyzer, readers, threads, capacity);
 			}
 			else {
-				indexBuilder = new ThreadSafeIndexBuilder(safeIndex, queue);
+				//Files above the chunk size (in kilobytes) are split and read in parallel
+				Integer chunk = map.getInteger("-chunk");
+				long chunkSize = chunk == null || chunk <= 0
+						? ThreadSafeIndexBuilder.DEFAULT_CHUNK_SIZE
+						: chunk * 1024L;
+				indexBuilder = new ThreadSafeIndexBuilder(safeIndex, queue, analyzer, chunkSize,
+						map.hasFlag("-local"), filter);
 			}
-			queryBuilder = new ThreadSafeQueryBuilder(safeIndex, queue);
+			//Searches taking longer than the timeout (in milliseconds) are interrupted and left out
+			Integer timeout = map.getInteger("-timeout");
+			queryBuilder = new ThreadSafeQueryBuilder(safeIndex, queue, analyzer,
+					timeout == null || timeout <= 0 ? null : Duration.ofMillis(timeout));
 		}
 		//Single-thread index and builder initializations
 		else {
 			index = new InvertedIndex();
-			indexBuilder = new InvertedIndexBuilder(index);
-			queryBuilder = new QueryResultBuilder(index);
+			if(map.hasFlag("-budget")) {
+				//Postings over the budget (in megabytes) are spilled to disk and merged at the end
+				Integer budget = map.getInteger("-budget");
+				long bytes = budget == null || budget <= 0
+						? SpillingIndexBuilder.DEFAULT_BUDGET
+						: budget * 1024L * 1024L;
+
+				//Without a search the merged index is streamed to the -index file instead of loaded,
+				//unless -incremental needs the whole index in memory to save it
+				if(map.hasFlag("-index") && !map.hasFlag("-query") && !map.hasFlag("-watch")
+						&& !map.hasFlag("-incremental")) {
+					streamed = map.getPath("-index", Path.of("index.json"));
+				}
+				indexBuilder = new SpillingIndexBuilder(index, analyzer, bytes, streamed);
+			}
+			else {
+				indexBuilder = new InvertedIndexBuilder(index, analyzer, filter);
+			}
+			queryBuilder = new QueryResultBuilder(index, analyzer);
 		}
 		
+		//Keeps a saved copy of the index and only re-reads files that changed
+		if(map.hasFlag("-incremental") && indexBuilder != null) {
+			Path saved = map.getPath("-incremental", Path.of("index.saved"));
+			indexBuilder = new IncrementalIndexBuilder(index, indexBuilder, saved, analyzer);
+		}
+
 		if(map.hasFlag("-text")) {
 			input = map.getPath("-text");
 			try {
@@ -89,6 +254,41 @@ public class Driver {
 			}
 		}
 
+		writeOutput(map, index, queryBuilder, streamed == null);
+
+		if(queue != null) {
+			queue.join();
+
+			//Shows how long tasks waited and ran, to tell if more threads would help
+			if(map.hasFlag("-metrics")) {
+				System.out.println(queue.getMetrics());
+			}
+		}
+
+		// calculate time elapsed and output
+		Duration elapsed = Duration.between(start, Instant.now());
+		double seconds = (double) elapsed.toMillis() / Duration.ofSeconds(1).toMillis();
+		System.out.printf("Elapsed: %f seconds%n", seconds);
+
+		//Keeps the index up to date with the -text directory until stopped
+		if(map.hasFlag("-watch") && map.getPath("-text") != null && Files.isDirectory(map.getPath("-text"))) {
+			watch(map, index, analyzer);
+		}
+	}
+
+	/**
+	 * Searches the index and writes out the results, counts and index based on
+	 * the provided command-line arguments.
+	 *
+	 * @param map the parsed command-line arguments
+	 * @param index the index to search and write out
+	 * @param queryBuilder the builder used to search the index
+	 * @param writeIndex false if the index was already streamed to its file
+	 */
+	private static void writeOutput(ArgumentMap map, InvertedIndex index, QueryBuilder queryBuilder,
+			boolean writeIndex) {
+		Path input, output;
+
 		if(map.hasFlag("-query") && map.getPath("-query") != null) {
 			input = map.getPath("-query");
 			try {
@@ -119,7 +319,7 @@ public class Driver {
 			}
 		}
 
-		if(map.hasFlag("-index")) {
+		if(map.hasFlag("-index") && writeIndex) {
 			output = map.getPath("-index", Path.of("index.json"));
 			try {
 				index.indexToJson(output);
@@ -128,14 +328,70 @@ public class Driver {
 				System.out.println("Unable to write out to file: " + output.toString());
 			}
 		}
+	}
 
-		if(queue != null) {
-			queue.join();
+	/**
+	 * Watches the -text directory and applies every change to the index,
+	 * searching and writing out the output again after each update. The
+	 * "-watch" flag optionally sets how long (in milliseconds) the directory
+	 * must be quiet before an update is applied.
+	 *
+	 * @param map the parsed command-line arguments
+	 * @param index the index built from the -text directory
+	 * @param analyzer the analyzer the index was built with
+	 */
+	private static void watch(ArgumentMap map, InvertedIndex index, TextAnalyzer analyzer) {
+		Path input = map.getPath("-text");
+		Integer millis = map.getInteger("-watch");
+		Duration quiet = millis == null || millis <= 0
+				? IndexWatcher.DEFAULT_QUIET
+				: Duration.ofMillis(millis);
+
+		IndexWatcher watcher = new IndexWatcher(index, analyzer, quiet);
+		System.out.println("Watching for changes to: " + input.toString());
+		try {
+			watcher.watch(input, () -> writeOutput(map, index, new QueryResultBuilder(index, analyzer), true));
 		}
+		catch(Exception e) {
+			System.out.println("Unable to watch path: " + input.toString());
+		}
+	}
 
-		// calculate time elapsed and output
-		Duration elapsed = Duration.between(start, Instant.now());
-		double seconds = (double) elapsed.toMillis() / Duration.ofSeconds(1).toMillis();
-		System.out.printf("Elapsed: %f seconds%n", seconds);
+	/**
+	 * Creates the analyzer shared by the index and query builders. The
+	 * "-stopwords" flag drops stop words, read from the provided file or the
+	 * built-in English list if no file is given. The "-stemmer" flag picks the
+	 * stemmer algorithm by name, or "none" to disable stemming.
+	 *
+	 * @param map the parsed command-line arguments
+	 * @return the analyzer to use, or the default analyzer if the flags are
+	 *   invalid
+	 */
+	private static TextAnalyzer getAnalyzer(ArgumentMap map) {
+		Set<String> stopWords = Collections.emptySet();
+		SnowballStemmer.ALGORITHM algorithm = TextStemmer.ENGLISH;
+
+		if(map.hasFlag("-stopwords")) {
+			Path input = map.getPath("-stopwords");
+			try {
+				stopWords = input == null
+						? TextAnalyzer.ENGLISH_STOP_WORDS
+						: TextAnalyzer.readStopWords(input);
+			}
+			catch(Exception e) {
+				System.out.println("Unable to read stop words from path: " + input.toString());
+			}
+		}
+
+		if(map.hasValue("-stemmer")) {
+			try {
+				algorithm = TextAnalyzer.getAlgorithm(map.getString("-stemmer"));
+			}
+			catch(IllegalArgumentException e) {
+				System.out.println("Unknown stemmer: " + map.getString("-stemmer"));
+			}
+		}
+
+		return new TextAnalyzer(stopWords, algorithm);
 	}
-}
\ No newline at end of file
+}
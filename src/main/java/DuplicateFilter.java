@@ -0,0 +1,145 @@
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Finds documents with byte-identical content during a build so they are only
+ * analyzed once. The first location seen with some content is the original and
+ * is indexed as usual. Every later location with the same content is recorded
+ * as a copy and skipped, and once the build is done {@link #apply(InvertedIndex)}
+ * adds the postings of each original under its copies.
+ *
+ * This class is thread safe, so a single filter may be shared by every worker
+ * of a build.
+ *
+ * @author Adon Anglon
+ */
+public class DuplicateFilter {
+	/** The log4j2 logger. */
+	private static final Logger log = LogManager.getLogger();
+
+	/** The original location of each content hash seen during the build. */
+	private final Map<String, String> originals;
+
+	/** The copies of each original location. */
+	private final Map<String, List<String>> copies;
+
+	/** The total size of the skipped copies in bytes. */
+	private final AtomicLong skippedBytes;
+
+	/** The number of skipped copies. */
+	private final AtomicInteger skippedDocuments;
+
+	/**
+	 * Initializes an empty filter.
+	 */
+	public DuplicateFilter() {
+		this.originals = new ConcurrentHashMap<>();
+		this.copies = new TreeMap<>();
+		this.skippedBytes = new AtomicLong();
+		this.skippedDocuments = new AtomicInteger();
+	}
+
+	/**
+	 * Determines if the content was already seen at another location during
+	 * this build. If so, the location is recorded as a copy and does not need
+	 * to be analyzed.
+	 *
+	 * @param location location of the document
+	 * @param content the raw content of the document
+	 * @return true if the location is a copy and should be skipped
+	 */
+	public boolean isDuplicate(String location, byte[] content) {
+		String original = originals.putIfAbsent(hash(content), location);
+		if(original == null || original.equals(location)) {
+			return false;
+		}
+
+		synchronized(copies) {
+			copies.computeIfAbsent(original, key -> new ArrayList<>()).add(location);
+		}
+		skippedBytes.addAndGet(content.length);
+		skippedDocuments.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Determines if the text was already seen at another location during this
+	 * build.
+	 *
+	 * @param location location of the document
+	 * @param text the text of the document
+	 * @return true if the location is a copy and should be skipped
+	 *
+	 * @see #isDuplicate(String, byte[])
+	 */
+	public boolean isDuplicate(String location, String text) {
+		return isDuplicate(location, text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Adds the postings of each original under its copies once every original
+	 * is in the index, then clears the filter for the next build.
+	 *
+	 * @param index the index the originals were added to
+	 */
+	public void apply(InvertedIndex index) {
+		synchronized(copies) {
+			index.addCopies(copies);
+			log.debug("Reused postings for {} copies, skipping {} bytes.", skippedDocuments.get(),
+					skippedBytes.get());
+			copies.clear();
+		}
+		originals.clear();
+	}
+
+	/**
+	 * Returns the total size of the documents skipped as copies.
+	 *
+	 * @return the skipped bytes
+	 */
+	public long getSkippedBytes() {
+		return skippedBytes.get();
+	}
+
+	/**
+	 * Returns the number of documents skipped as copies.
+	 *
+	 * @return the number of skipped documents
+	 */
+	public int getSkippedDocuments() {
+		return skippedDocuments.get();
+	}
+
+	/**
+	 * Hashes the content with SHA-256.
+	 *
+	 * @param content the content to hash
+	 * @return the hash in hexadecimal
+	 */
+	private static String hash(byte[] content) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return String.format("%064x", new BigInteger(1, digest.digest(content)));
+		}
+		catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is required by every Java platform.", e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "[copies: " + skippedDocuments.get() + ", skipped bytes: " + skippedBytes.get() + "]";
+	}
+}
@@ -1,11 +1,6 @@
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.net.MalformedURLException;
-import java.net.Socket;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -75,10 +70,7 @@ public class HtmlFetcher {
 	 * @return the html or {@code null} if unable to fetch the resource or the
 	 *   resource is not html
 	 *
-	 * @see HttpsFetcher#openConnection(URL)
-	 * @see HttpsFetcher#printGetRequest(PrintWriter, URL)
-	 * @see HttpsFetcher#getHeaderFields(BufferedReader)
-	 * @see HttpsFetcher#getContent(BufferedReader)
+	 * @see HttpsFetcher#fetchURL(URL)
 	 *
 	 * @see String#join(CharSequence, CharSequence...)
 	 * @see System#lineSeparator()
@@ -89,18 +81,13 @@ public class HtmlFetcher {
 	public static String fetch(URL url, int redirects) {
 		String html = null;
 
-		try (
-				Socket socket = HttpsFetcher.openConnection(url);
-				PrintWriter request = new PrintWriter(socket.getOutputStream());
-				InputStreamReader input = new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8);
-				BufferedReader response = new BufferedReader(input);
-		) {
-			HttpsFetcher.printGetRequest(request, url);
-			Map<String, List<String>> headers = HttpsFetcher.getHeaderFields(response);
+		try {
+			//Only the body of a 200 html response is downloaded
+			Map<String, List<String>> headers = HttpsFetcher.fetchURL(url);
 			if(isHtml(headers)) {
 				int status = getStatusCode(headers);
 				if(status == 200) {
-					html = String.join("\n", HttpsFetcher.getContent(response));
+					html = String.join("\n", headers.get("Content"));
 				}
 				else if(isRedirect(headers) && redirects > 0) {
 					html = fetch(headers.get("Location").get(0), redirects - 1);
@@ -1,7 +1,11 @@
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.StringReader;
 import java.net.MalformedURLException;
 import java.net.Socket;
 import java.net.URL;
@@ -19,34 +23,257 @@ import javax.net.ssl.SSLSocketFactory;
 /**
  * An alternative to using {@link Socket} connections instead of a
  * {@link URLConnection} to fetch the headers and content from a URL on the web.
+ * Connections are kept open in a {@link ConnectionPool} and reused for later
+ * requests to the same host, so a crawl does not pay for a new connection (and
+ * TLS handshake) on every page.
  *
  * @author CS 272 Software Development (University of San Francisco)
  * @version Fall 2021
  */
 public class HttpsFetcher {
+	/** The connections kept open between requests. */
+	private static final ConnectionPool pool = new ConnectionPool();
+
 	/**
 	 * Fetches the headers and content for the specified URL. The content is placed
 	 * as a list of all the lines fetched under the "Content" key.
 	 *
+	 * The connection is taken from the pool, and returned to it if the response
+	 * body was framed by a "Content-Length" or chunked encoding and the server
+	 * did not ask to close it. If a reused connection fails, it may have been
+	 * closed by the server while idle, so the request is sent once more on a new
+	 * connection.
+	 *
+	 * Only the body of a 200 HTML response is read. For any other response the
+	 * content is left empty and the connection is closed instead of downloading
+	 * a body that is never used.
+	 *
 	 * @param url the url to fetch
 	 * @return a map with the headers and content
 	 * @throws IOException if unable to fetch headers and content
 	 */
 	public static Map<String, List<String>> fetchURL(URL url) throws IOException {
-		try (
-				Socket socket = openConnection(url);
-				PrintWriter request = new PrintWriter(socket.getOutputStream());
-				InputStreamReader input = new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8);
-				BufferedReader response = new BufferedReader(input);
-		) {
-			printGetRequest(request, url);
-
-			Map<String, List<String>> headers = getHeaderFields(response);
-			List<String> content = getContent(response);
-			headers.put("Content", content);
+		ConnectionPool.Connection connection = pool.acquire(url);
+		try {
+			return exchange(url, connection);
+		}
+		catch (IOException e) {
+			connection.close();
+			if (!connection.isReused()) {
+				throw e;
+			}
+		}
+
+		ConnectionPool.Connection fresh = pool.open(url);
+		try {
+			return exchange(url, fresh);
+		}
+		catch (IOException e) {
+			fresh.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Sends a GET request on the connection and reads the whole response. The
+	 * connection is returned to the pool if it can be reused, and closed
+	 * otherwise.
+	 *
+	 * @param url the url to fetch
+	 * @param connection the connection to send the request on
+	 * @return a map with the headers and content
+	 * @throws IOException if unable to fetch headers and content
+	 */
+	private static Map<String, List<String>> exchange(URL url, ConnectionPool.Connection connection)
+			throws IOException {
+		writeGetRequest(connection.getOutputStream(), url);
+
+		InputStream response = connection.getInputStream();
+		String status = readLine(response);
+		if (status == null) {
+			throw new EOFException("Connection closed before a response was sent.");
+		}
+
+		Map<String, List<String>> headers = new HashMap<>();
+		headers.put(null, List.of(status));
+
+		String line;
+		while ((line = readLine(response)) != null && !line.isBlank()) {
+			String[] split = line.split(":\\s+", 2);
+			if (split.length == 2) {
+				headers.putIfAbsent(split[0], new ArrayList<>());
+				headers.get(split[0]).add(split[1]);
+			}
+		}
+
+		// HTTP/1.1 connections stay open unless the server says otherwise
+		boolean reusable = status.startsWith("HTTP/1.1") && !"close".equalsIgnoreCase(getHeader(headers, "Connection"));
+		String encoding = getHeader(headers, "Transfer-Encoding");
+		String length = getHeader(headers, "Content-Length");
+		int code = HtmlFetcher.getStatusCode(headers);
+		byte[] body;
 
+		if (code != 200 || !HtmlFetcher.isHtml(headers)) {
+			// skipping the body leaves the connection unusable, which is cheaper than reading it
+			headers.put("Content", List.of());
+			connection.close();
 			return headers;
 		}
+		else if (encoding != null && encoding.toLowerCase().contains("chunked")) {
+			body = readChunked(response);
+		}
+		else if (length != null) {
+			body = readFully(response, parseLength(length.trim(), 10, "Content-Length"));
+		}
+		else {
+			// the body ends when the server closes the connection
+			body = response.readAllBytes();
+			reusable = false;
+		}
+
+		String content = new String(body, StandardCharsets.UTF_8);
+		headers.put("Content", new BufferedReader(new StringReader(content)).lines().toList());
+
+		if (reusable) {
+			pool.release(connection);
+		}
+		else {
+			connection.close();
+		}
+		return headers;
+	}
+
+	/**
+	 * Writes an HTTP GET request that keeps the connection open.
+	 *
+	 * @param output the output of a socket connection
+	 * @param url the url to fetch via the socket connection
+	 * @throws IOException if unable to write request to socket
+	 */
+	private static void writeGetRequest(OutputStream output, URL url) throws IOException {
+		String host = url.getHost();
+		String resource = url.getFile().isEmpty() ? "/" : url.getFile();
+
+		String request = String.format("GET %s HTTP/1.1\r\nHost: %s\r\nConnection: keep-alive\r\n\r\n", resource, host);
+		output.write(request.getBytes(StandardCharsets.ISO_8859_1));
+		output.flush();
+	}
+
+	/**
+	 * Reads a line of the status or headers, which end with a carriage return
+	 * and line feed.
+	 *
+	 * @param input the input of a socket connection
+	 * @return the line without the line ending, or {@code null} if the stream
+	 *   ended first
+	 * @throws IOException if unable to read from socket
+	 */
+	private static String readLine(InputStream input) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int next;
+		while ((next = input.read()) != -1 && next != '\n') {
+			if (next != '\r') {
+				line.write(next);
+			}
+		}
+		return next == -1 && line.size() == 0 ? null : line.toString(StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Parses a body or chunk length sent by the server.
+	 *
+	 * @param length the length as sent
+	 * @param radix 10 for Content-Length or 16 for a chunk size
+	 * @param name what the length is, for the error message
+	 * @return the length in bytes
+	 * @throws IOException if the length is malformed, negative or too large
+	 */
+	private static int parseLength(String length, int radix, String name) throws IOException {
+		try {
+			int parsed = Integer.parseInt(length, radix);
+			if (parsed >= 0) {
+				return parsed;
+			}
+		}
+		catch (NumberFormatException e) {
+			throw new IOException("Malformed " + name + ": " + length, e);
+		}
+		throw new IOException("Malformed " + name + ": " + length);
+	}
+
+	/**
+	 * Reads exactly the given number of bytes.
+	 *
+	 * @param input the input of a socket connection
+	 * @param length the number of bytes to read
+	 * @return the bytes read
+	 * @throws IOException if the stream ends early or unable to read from socket
+	 */
+	private static byte[] readFully(InputStream input, int length) throws IOException {
+		byte[] bytes = input.readNBytes(length);
+		if (bytes.length < length) {
+			throw new EOFException("Connection closed after " + bytes.length + " of " + length + " bytes.");
+		}
+		return bytes;
+	}
+
+	/**
+	 * Reads a body sent with chunked transfer encoding, including the trailer
+	 * headers after the last chunk.
+	 *
+	 * @param input the input of a socket connection
+	 * @return the bytes of every chunk
+	 * @throws IOException if the body is malformed or unable to read from socket
+	 */
+	private static byte[] readChunked(InputStream input) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		while (true) {
+			String size = readLine(input);
+			if (size == null) {
+				throw new EOFException("Connection closed inside a chunked body.");
+			}
+
+			// chunk extensions after a semicolon are ignored
+			int end = size.indexOf(';');
+			int length = parseLength((end < 0 ? size : size.substring(0, end)).trim(), 16, "chunk size");
+
+			if (length == 0) {
+				String trailer;
+				while ((trailer = readLine(input)) != null && !trailer.isEmpty()) {
+					continue;
+				}
+				return body.toByteArray();
+			}
+
+			body.write(readFully(input, length));
+			readLine(input);
+		}
+	}
+
+	/**
+	 * Returns the first value of a header, ignoring the case of its name.
+	 *
+	 * @param headers the HTTP/1.1 headers
+	 * @param name the name of the header
+	 * @return the first value, or {@code null} if there is no such header
+	 */
+	private static String getHeader(Map<String, List<String>> headers, String name) {
+		for (var entry : headers.entrySet()) {
+			if (name.equalsIgnoreCase(entry.getKey()) && !entry.getValue().isEmpty()) {
+				return entry.getValue().get(0);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the pool of connections kept open between requests, which also
+	 * counts how often connections were reused.
+	 *
+	 * @return the connection pool
+	 */
+	public static ConnectionPool getPool() {
+		return pool;
 	}
 
 	/**
@@ -0,0 +1,281 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * This class keeps a saved copy of an inverted index along with a fingerprint
+ * (size, modified time and content hash) of every file it was built from. Each
+ * build loads the saved index, re-reads only the files that were added or
+ * changed since the last build, drops the locations of files that were
+ * deleted, and saves the result for the next build.
+ *
+ * The files themselves are read by another builder that populates the same
+ * index, so this works with either the single or multithreaded builders.
+ *
+ * @author Adon Anglon
+ */
+public class IncrementalIndexBuilder implements IndexBuilder {
+	/** Identifies files written by this class. */
+	private static final int MAGIC = 0x53454958;
+
+	/** The version of the saved file format. */
+	private static final int VERSION = 1;
+
+	/**
+	 * This InvertedIndex will be a reference for the index passed into the function.
+	 */
+	private final InvertedIndex invertedIndex;
+
+	/** The builder used to read added and changed files into the index. */
+	private final IndexBuilder builder;
+
+	/** The file the index and fingerprints are saved to. */
+	private final Path saved;
+
+	/**
+	 * Describes the analyzer the index was built with. A saved index built with
+	 * a different analyzer is ignored.
+	 */
+	private final String analyzer;
+
+	/** The fingerprint of every file in the index, by location. */
+	private final Map<String, Fingerprint> fingerprints;
+
+	/** The locations found during the current build. */
+	private final Set<String> found;
+
+	/** The added or changed files found during the current build. */
+	private final List<Path> changed;
+
+	/**
+	 * Initializes the builder.
+	 *
+	 * @param index invertedIndex to be entered, which should start out empty
+	 * @param builder builder that reads files into the same index
+	 * @param saved file the index and fingerprints are saved to
+	 * @param analyzer analyzer the builder uses to read files
+	 */
+	public IncrementalIndexBuilder(InvertedIndex index, IndexBuilder builder, Path saved,
+			TextAnalyzer analyzer) {
+		this.invertedIndex = index;
+		this.builder = builder;
+		this.saved = saved;
+		this.analyzer = analyzer.getSignature();
+		this.fingerprints = new TreeMap<>();
+		this.found = new HashSet<>();
+		this.changed = new ArrayList<>();
+	}
+
+	@Override
+	public void build(Path mainPath) throws IOException {
+		load();
+		found.clear();
+		changed.clear();
+
+		if(Files.isDirectory(mainPath)) {
+			readFiles(mainPath);
+		}
+		else {
+			readFile(mainPath);
+		}
+
+		int deleted = 0;
+		Iterator<String> iterator = fingerprints.keySet().iterator();
+		while(iterator.hasNext()) {
+			String location = iterator.next();
+			if(!found.contains(location)) {
+				invertedIndex.delete(location);
+				iterator.remove();
+				deleted++;
+			}
+		}
+
+		//Purge deleted and changed files in one pass before re-reading
+		for(Path path : changed) {
+			invertedIndex.delete(path.toString());
+		}
+		invertedIndex.compact();
+		builder.build(changed);
+
+		//Files the builder could not read are left without a fingerprint so the next build retries them
+		for(Path path : builder.getUnread()) {
+			fingerprints.remove(path.toString());
+		}
+
+		log.debug("Re-indexed {} of {} files and removed {} deleted files.",
+				changed.size(), found.size(), deleted);
+		save();
+	}
+
+	/**
+	 * Compares the file to its fingerprint from the last build. The file is only
+	 * hashed if its size or modified time changed. A file that cannot be
+	 * fingerprinted is skipped as if it was not found.
+	 */
+	@Override
+	public void readFile(Path path) throws IOException {
+		String location = path.toString();
+		Fingerprint previous = fingerprints.get(location);
+		Fingerprint current;
+		try {
+			current = Fingerprint.of(path, previous);
+		}
+		catch(IOException e) {
+			log.debug("Unable to fingerprint {}; skipping it.", path);
+			return;
+		}
+
+		found.add(location);
+		fingerprints.put(location, current);
+		if(previous == null || !previous.hash.equals(current.hash)) {
+			changed.add(path);
+		}
+	}
+
+	/**
+	 * Loads the saved index and fingerprints if there are any. If the saved file
+	 * is missing, unreadable or built with a different analyzer, the index is
+	 * rebuilt from scratch.
+	 */
+	private void load() {
+		fingerprints.clear();
+		if(!Files.isReadable(saved)) {
+			return;
+		}
+
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(saved)))) {
+			if(in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(analyzer)) {
+				log.debug("Ignoring saved index at {}.", saved);
+				return;
+			}
+
+			Map<String, Fingerprint> loaded = new TreeMap<>();
+			int count = in.readInt();
+			for(int i = 0; i < count; i++) {
+				loaded.put(in.readUTF(), new Fingerprint(in.readLong(), in.readLong(), in.readUTF()));
+			}
+
+			invertedIndex.read(in);
+			fingerprints.putAll(loaded);
+			log.debug("Loaded saved index of {} files from {}.", count, saved);
+		}
+		catch(IOException e) {
+			log.debug("Unable to load saved index; rebuilding from scratch.");
+		}
+	}
+
+	/**
+	 * Saves the index and fingerprints. The file is written next to the saved
+	 * file first and then moved over it, so a failed save never leaves a
+	 * partial file behind.
+	 *
+	 * @throws IOException if unable to write the saved file
+	 */
+	private void save() throws IOException {
+		Path temp = saved.resolveSibling(saved.getFileName() + ".tmp");
+
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(analyzer);
+
+			out.writeInt(fingerprints.size());
+			for(var entry : fingerprints.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeLong(entry.getValue().size);
+				out.writeLong(entry.getValue().modified);
+				out.writeUTF(entry.getValue().hash);
+			}
+
+			invertedIndex.write(out);
+		}
+
+		Files.move(temp, saved, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * The size, modified time and content hash of a file.
+	 */
+	private static class Fingerprint {
+		/** The size of the file in bytes. */
+		private final long size;
+
+		/** The last modified time of the file in milliseconds. */
+		private final long modified;
+
+		/** The SHA-256 hash of the file content in hexadecimal. */
+		private final String hash;
+
+		/**
+		 * Initializes the fingerprint.
+		 *
+		 * @param size the size of the file in bytes
+		 * @param modified the last modified time of the file in milliseconds
+		 * @param hash the hash of the file content
+		 */
+		public Fingerprint(long size, long modified, String hash) {
+			this.size = size;
+			this.modified = modified;
+			this.hash = hash;
+		}
+
+		/**
+		 * Creates the fingerprint of a file, reusing the hash of the previous
+		 * fingerprint if the size and modified time have not changed.
+		 *
+		 * @param path the file to fingerprint
+		 * @param previous the fingerprint from the last build, or {@code null}
+		 * @return the fingerprint of the file
+		 * @throws IOException if unable to read the file
+		 */
+		public static Fingerprint of(Path path, Fingerprint previous) throws IOException {
+			BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+			long size = attributes.size();
+			long modified = attributes.lastModifiedTime().toMillis();
+
+			if(previous != null && previous.size == size && previous.modified == modified) {
+				return previous;
+			}
+			return new Fingerprint(size, modified, hash(path));
+		}
+
+		/**
+		 * Hashes the content of a file with SHA-256.
+		 *
+		 * @param path the file to hash
+		 * @return the hash in hexadecimal
+		 * @throws IOException if unable to read the file
+		 */
+		private static String hash(Path path) throws IOException {
+			try(InputStream input = Files.newInputStream(path)) {
+				MessageDigest digest = MessageDigest.getInstance("SHA-256");
+				byte[] buffer = new byte[8192];
+				int read;
+				while((read = input.read(buffer)) > 0) {
+					digest.update(buffer, 0, read);
+				}
+				return String.format("%064x", new BigInteger(1, digest.digest()));
+			}
+			catch(NoSuchAlgorithmException e) {
+				throw new IllegalStateException("SHA-256 is required by every Java platform.", e);
+			}
+		}
+	}
+}
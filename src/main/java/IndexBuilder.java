@@ -1,7 +1,14 @@
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -13,6 +20,9 @@ import org.apache.logging.log4j.Logger;
 public interface IndexBuilder {
 	/** The log4j2 logger. */
 	static final Logger log = LogManager.getLogger();
+
+	/** The buffer size used to decompress compressed files. */
+	static final int BUFFER_SIZE = 64 * 1024;
 	
 	/**
 	 * Populates invertedIndex from mainPath.
@@ -21,6 +31,30 @@ public interface IndexBuilder {
 	 * @throws IOException file is invalid or can not be found
 	 */
 	void build(Path mainPath) throws IOException;
+
+	/**
+	 * Populates invertedIndex from only the listed files, returning once all of
+	 * them have been added.
+	 *
+	 * @param paths text files to be read
+	 * @throws IOException file is invalid or can not be found
+	 */
+	default void build(Collection<Path> paths) throws IOException {
+		for(Path path : paths) {
+			readFile(path);
+		}
+	}
+	
+	/**
+	 * Returns the files the last build was unable to read. Builders that skip
+	 * unreadable files instead of throwing should report them here so callers
+	 * know the files are missing from the index.
+	 *
+	 * @return the files that were not read, which is empty by default
+	 */
+	default Collection<Path> getUnread() {
+		return Collections.emptySet();
+	}
 	
 	/**
 	 * Takes in a Path object and uses TextStemmer to parse through the text file(s) indicated
@@ -43,15 +77,75 @@ public interface IndexBuilder {
 	}
 	
 	/**
-	 * This checks to see if a path leads to a text file.
+	 * This checks to see if a path leads to a text file, which may be compressed.
 	 *
 	 * @param path file path to be checked
-	 * @return true if the path ends with the .txt or .text extension
+	 * @return true if the path ends with the .txt or .text extension, optionally
+	 *   followed by the .gz extension
 	 */
 	static boolean isTextFile(Path path) {
 		String lower = path.toString().toLowerCase();
+		if(lower.endsWith(".gz")) {
+			lower = lower.substring(0, lower.length() - 3);
+		}
 		return lower.endsWith(".txt") || lower.endsWith(".text");
 	}
+
+	/**
+	 * This checks to see if a path leads to a gzip compressed file.
+	 *
+	 * @param path file path to be checked
+	 * @return true if the path ends with the .gz extension
+	 */
+	static boolean isCompressed(Path path) {
+		return path.toString().toLowerCase().endsWith(".gz");
+	}
+
+	/**
+	 * Opens a UTF-8 text file for reading, decompressing it as it is read if it
+	 * is compressed. Only the compressed bytes are read from disk.
+	 *
+	 * @param path file path to be read
+	 * @return a reader of the decompressed text
+	 * @throws IOException file is invalid or can not be found
+	 *
+	 * @see #isCompressed(Path)
+	 */
+	static BufferedReader newBufferedReader(Path path) throws IOException {
+		if(!isCompressed(path)) {
+			return Files.newBufferedReader(path);
+		}
+
+		//Malformed input is reported just like Files.newBufferedReader
+		InputStream input = Files.newInputStream(path);
+		try {
+			return new BufferedReader(new InputStreamReader(new GZIPInputStream(input, BUFFER_SIZE),
+					StandardCharsets.UTF_8.newDecoder()));
+		}
+		catch(IOException e) {
+			input.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads the whole content of a file, decompressing it if it is compressed.
+	 *
+	 * @param path file path to be read
+	 * @return the decompressed content
+	 * @throws IOException file is invalid or can not be found
+	 *
+	 * @see #isCompressed(Path)
+	 */
+	static byte[] readAllBytes(Path path) throws IOException {
+		if(!isCompressed(path)) {
+			return Files.readAllBytes(path);
+		}
+
+		try(InputStream input = new GZIPInputStream(Files.newInputStream(path), BUFFER_SIZE)) {
+			return input.readAllBytes();
+		}
+	}
 	
 	/**
 	 * Reads the file path into the default invertedIndex map of the builder.
@@ -134,26 +134,33 @@ public class IndexReadWriteLock {
 		 * Controls access to the read lock. The active thread is forced to wait while
 		 * there are any active writers and it is not the active writer thread. Once
 		 * safe, the thread is allowed to acquire a read lock by safely incrementing the
-		 * number of active readers.
+		 * number of active readers. An interrupt while waiting does not give up
+		 * on the lock; it is restored once the lock is acquired.
 		 */
 		@Override
 		public void lock() {
 			log.debug("Acquiring read lock...");
 
-			try {
-				synchronized (lock) {
-					while (writers > 0 && !isActiveWriter()) {
-						log.debug("Waiting for read lock...");
+			boolean interrupted = false;
+			synchronized (lock) {
+				while (writers > 0 && !isActiveWriter()) {
+					log.debug("Waiting for read lock...");
+					try {
 						lock.wait();
 					}
-
-					log.debug("Woke up waiting for read lock...");
-					readers++;
-					log.debug("Acquired read lock.");
+					catch (InterruptedException ex) {
+						// keeps waiting, since returning without the lock would let the caller read unlocked
+						log.catching(Level.DEBUG, ex);
+						interrupted = true;
+					}
 				}
+
+				log.debug("Woke up waiting for read lock...");
+				readers++;
+				log.debug("Acquired read lock.");
 			}
-			catch (InterruptedException ex) {
-				log.catching(Level.DEBUG, ex);
+
+			if(interrupted) {
 				Thread.currentThread().interrupt();
 			}
 		}
@@ -190,29 +197,36 @@ public class IndexReadWriteLock {
 		 * there are any active readers or writers, and it is not the active writer
 		 * thread. Once safe, the thread is allowed to acquire a write lock by safely
 		 * incrementing the number of active writers and setting the active writer
-		 * reference.
+		 * reference. An interrupt while waiting does not give up on the lock; it is
+		 * restored once the lock is acquired.
 		 */
 		@Override
 		public void lock() {
 			log.debug("Acquiring write lock...");
 
-			try {
-				synchronized (lock) {
-					while ((writers > 0 || readers > 0) && !isActiveWriter()) {
-						log.debug("Waiting for write lock...");
+			boolean interrupted = false;
+			synchronized (lock) {
+				while ((writers > 0 || readers > 0) && !isActiveWriter()) {
+					log.debug("Waiting for write lock...");
+					try {
 						lock.wait();
 					}
-
-					log.debug("Woke up waiting for write lock...");
-					if(!isActiveWriter()) {
-						activeWriter = Thread.currentThread();
+					catch (InterruptedException ex) {
+						// keeps waiting, since returning without the lock would let the caller write unlocked
+						log.catching(Level.DEBUG, ex);
+						interrupted = true;
 					}
-					writers++;
-					log.debug("Acquired write lock.");
 				}
+
+				log.debug("Woke up waiting for write lock...");
+				if(!isActiveWriter()) {
+					activeWriter = Thread.currentThread();
+				}
+				writers++;
+				log.debug("Acquired write lock.");
 			}
-			catch (InterruptedException | ConcurrentModificationException ex) {
-				log.catching(Level.DEBUG, ex);
+
+			if(interrupted) {
 				Thread.currentThread().interrupt();
 			}
 		}
@@ -0,0 +1,258 @@
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Watches a directory tree for changes to its text files and applies them to a
+ * live inverted index: new and modified files are re-read and deleted files
+ * (or whole deleted directories) are removed. Bursts of events, such as a
+ * large copy, are combined into a single update once the tree has been quiet
+ * for a short time.
+ *
+ * Changed files are read before the index is touched, so the index is only
+ * locked briefly for each update. Use a {@link ThreadSafeInvertedIndex} if the
+ * index is searched from other threads while it is being watched.
+ *
+ * @author Adon Anglon
+ */
+public class IndexWatcher {
+	/** The log4j2 logger. */
+	private static final Logger log = LogManager.getLogger();
+
+	/** The default time the tree must be quiet before an update is applied. */
+	public static final Duration DEFAULT_QUIET = Duration.ofSeconds(1);
+
+	/**
+	 * This InvertedIndex will be a reference for the index passed into the function.
+	 */
+	private final InvertedIndex invertedIndex;
+
+	/** The analyzer used to turn each line of text into index terms. */
+	private final TextAnalyzer analyzer;
+
+	/** The time the tree must be quiet before an update is applied. */
+	private final Duration quiet;
+
+	/** The directory watched by each watch key. */
+	private final Map<WatchKey, Path> directories;
+
+	/** The locations of every text file known to be in the index. */
+	private final TreeSet<String> files;
+
+	/** The watch service while watching, used to stop from another thread. */
+	private volatile WatchService service;
+
+	/**
+	 * Initializes the watcher.
+	 *
+	 * @param index the index to keep up to date
+	 * @param analyzer the analyzer the index was built with
+	 * @param quiet the time the tree must be quiet before an update is applied
+	 */
+	public IndexWatcher(InvertedIndex index, TextAnalyzer analyzer, Duration quiet) {
+		this.invertedIndex = index;
+		this.analyzer = analyzer;
+		this.quiet = quiet;
+		this.directories = new HashMap<>();
+		this.files = new TreeSet<>();
+	}
+
+	/**
+	 * Watches the directory tree until {@link #close()} is called or the thread
+	 * is interrupted. The index should already contain the files in the tree.
+	 *
+	 * @param root the directory tree to watch
+	 * @param onUpdate called after each update is applied to the index
+	 * @throws IOException if unable to watch the directory tree
+	 */
+	public void watch(Path root, Runnable onUpdate) throws IOException {
+		try(WatchService watchService = root.getFileSystem().newWatchService()) {
+			service = watchService;
+			register(root, new TreeSet<>());
+			log.debug("Watching {} directories with {} text files.", directories.size(), files.size());
+
+			while(true) {
+				Set<Path> changed = new TreeSet<>();
+				boolean overflow = collect(watchService.take(), changed);
+
+				//Wait for the burst to end, but never longer than ten quiet periods
+				long deadline = System.nanoTime() + quiet.toNanos() * 10;
+				WatchKey key;
+				while(System.nanoTime() < deadline
+						&& (key = watchService.poll(quiet.toMillis(), TimeUnit.MILLISECONDS)) != null) {
+					overflow |= collect(key, changed);
+				}
+
+				if(overflow) {
+					log.debug("Missed some events; rescanning {}.", root);
+					changed.clear();
+					register(root, changed);
+					for(String location : files) {
+						changed.add(Path.of(location));
+					}
+				}
+
+				apply(changed);
+				onUpdate.run();
+			}
+		}
+		catch(ClosedWatchServiceException e) {
+			log.debug("Watcher closed.");
+		}
+		catch(InterruptedException e) {
+			log.catching(Level.DEBUG, e);
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			service = null;
+			directories.clear();
+		}
+	}
+
+	/**
+	 * Stops watching. Safe to call from any thread.
+	 */
+	public void close() {
+		WatchService watchService = service;
+		if(watchService != null) {
+			try {
+				watchService.close();
+			}
+			catch(IOException e) {
+				log.catching(Level.DEBUG, e);
+			}
+		}
+	}
+
+	/**
+	 * Registers the directory and every directory under it with the watch
+	 * service, adding the text files found to the output.
+	 *
+	 * @param directory the directory to register
+	 * @param found where the text files found are added
+	 * @throws IOException if unable to register or list the directory
+	 */
+	private void register(Path directory, Set<Path> found) throws IOException {
+		WatchKey key = directory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+		directories.put(key, directory);
+
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+			for(Path path: stream) {
+				if(Files.isDirectory(path)) {
+					register(path, found);
+				}
+				else if(IndexBuilder.isTextFile(path)) {
+					found.add(path);
+					files.add(path.toString());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the paths from the events of a watch key to the changed paths. New
+	 * directories are registered and their text files are added as well.
+	 *
+	 * @param key the watch key with pending events
+	 * @param changed where the changed paths are added
+	 * @return true if some events were lost and the tree must be rescanned
+	 */
+	private boolean collect(WatchKey key, Set<Path> changed) {
+		boolean overflow = false;
+		Path directory = directories.get(key);
+
+		for(WatchEvent<?> event : key.pollEvents()) {
+			if(event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+				overflow = true;
+				continue;
+			}
+
+			Path path = directory.resolve((Path) event.context());
+			if(event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+				try {
+					register(path, changed);
+				}
+				catch(IOException e) {
+					log.debug("Unable to watch new directory {}.", path);
+					overflow = true;
+				}
+			}
+			else {
+				changed.add(path);
+			}
+		}
+
+		if(!key.reset()) {
+			directories.remove(key);
+		}
+		return overflow;
+	}
+
+	/**
+	 * Applies the changed paths to the index. Text files that still exist are
+	 * read into their own indexes first, and then the index is updated in a
+	 * single step so searches never see a file half replaced.
+	 *
+	 * @param changed the paths that changed since the last update
+	 */
+	private void apply(Set<Path> changed) {
+		Map<String, InvertedIndex> updated = new TreeMap<>();
+		List<String> removed = new ArrayList<>();
+
+		for(Path path : changed) {
+			String location = path.toString();
+
+			if(Files.isRegularFile(path) && IndexBuilder.isTextFile(path)) {
+				try {
+					InvertedIndex tempIndex = new InvertedIndex();
+					InvertedIndexBuilder.readFile(path, tempIndex, analyzer);
+					updated.put(location, tempIndex);
+					files.add(location);
+					continue;
+				}
+				catch(IOException e) {
+					log.debug("Unable to read changed file {}.", path);
+				}
+			}
+
+			if(!Files.isDirectory(path)) {
+				//Either a file or a whole directory was removed
+				if(files.remove(location)) {
+					removed.add(location);
+				}
+				String prefix = location + path.getFileSystem().getSeparator();
+				Set<String> nested = files.subSet(prefix, prefix + Character.MAX_VALUE);
+				removed.addAll(nested);
+				nested.clear();
+			}
+		}
+
+		if(updated.isEmpty() && removed.isEmpty()) {
+			return;
+		}
+
+		invertedIndex.update(updated, removed);
+		log.debug("Updated {} files and removed {} files.", updated.size(), removed.size());
+	}
+}
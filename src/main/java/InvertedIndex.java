@@ -1,12 +1,21 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
 
 /**
  * This class represents the data structure of the inverted index.
@@ -26,12 +35,20 @@ public class InvertedIndex {
 	 */
 	private final Map<String, Integer> countMap;
 
+	/**
+	 * The tombstones of file locations that were deleted but whose positions are
+	 * still in the invertedIndex map until the next {@link #compact()}. Deleted
+	 * locations are skipped by searches and are not in the countMap.
+	 */
+	private final Set<String> deleted;
+
 	/**
 	 * Initializes invertedIndex and wordCount to new empty TreeMap objects.
 	 */
 	public InvertedIndex() {
 		invertedIndex = new TreeMap<>();
 		countMap = new TreeMap<>();
+		deleted = new HashSet<>();
 	}
 
 	/**
@@ -44,6 +61,7 @@ public class InvertedIndex {
 	 * @return true if the new key value pair did not exist and was added to map
 	 */
 	public boolean add(String word, String location, Integer position) {
+		revive(location);
 		invertedIndex.putIfAbsent(word, new TreeMap<>());
 		invertedIndex.get(word).putIfAbsent(location, new TreeSet<Integer>());
 
@@ -63,6 +81,7 @@ public class InvertedIndex {
 	 * @param location file location where the word stem appeared
 	 */
 	public void addAll(List<String> words, String location) {
+		revive(location);
 		int i = 0;
 		for(String word: words) {
 			add(word, location, ++i);
@@ -73,45 +92,437 @@ public class InvertedIndex {
 	}
 
 	/**
-	 * Adds all elements from the inverted index passed into function.
+	 * Adds all elements from the inverted index passed into function. Every
+	 * location map and position set is copied, so this index never shares data
+	 * with the other index, and each word and location is only looked up once.
 	 *
-	 * @param index inverted index to be read from
+	 * @param otherIndex inverted index to be read from
 	 */
 	public void addAll(InvertedIndex otherIndex) {
-		//For each word key in the other invertedIndex
-		for(String word : otherIndex.invertedIndex.keySet()) {
-			TreeMap<String, TreeSet<Integer>> locations = otherIndex.invertedIndex.get(word);
-
-			//If the word key is in THIS invertedIndex
-			if(this.invertedIndex.containsKey(word)) {
-				//For each location in the other invertedIndex's word value
-				for(String location : locations.keySet()) {
-					TreeSet<Integer> positions = otherIndex.invertedIndex.get(word).get(location);
-					
-					//If the location key is in THIS invertedIndex's word value
-					if(this.invertedIndex.get(word).containsKey(location)) {
-						this.invertedIndex.get(word).get(location).addAll(positions);
-					}
-					//Else paste the whole entry
-					else {
-						this.invertedIndex.get(word).put(location, positions);
-					}
+		otherIndex = otherIndex.live();
+		for(String location : otherIndex.countMap.keySet()) {
+			revive(location);
+		}
+
+		if(this.invertedIndex.isEmpty()) {
+			//Both maps are sorted, so the whole index is copied in a single pass
+			TreeMap<String, TreeMap<String, TreeSet<Integer>>> copy = new TreeMap<>(otherIndex.invertedIndex);
+			for(var wordEntry : copy.entrySet()) {
+				wordEntry.setValue(copyLocations(wordEntry.getValue()));
+			}
+			this.invertedIndex.putAll(copy);
+		}
+		else {
+			//For each word key in the other invertedIndex
+			for(var wordEntry : otherIndex.invertedIndex.entrySet()) {
+				TreeMap<String, TreeSet<Integer>> locations = this.invertedIndex.get(wordEntry.getKey());
+
+				//Paste a copy of the whole entry if the word is not in THIS invertedIndex
+				if(locations == null) {
+					this.invertedIndex.put(wordEntry.getKey(), copyLocations(wordEntry.getValue()));
 				}
+				else {
+					addLocations(locations, wordEntry.getValue());
+				}
+			}
+		}
+
+		addCounts(otherIndex);
+	}
+
+	/**
+	 * Copies a map of locations to positions. The copies are built from sorted
+	 * sources, which takes linear time.
+	 *
+	 * @param locations the map of locations to positions to be copied
+	 * @return a copy that shares no data with the original
+	 */
+	private static TreeMap<String, TreeSet<Integer>> copyLocations(TreeMap<String, TreeSet<Integer>> locations) {
+		TreeMap<String, TreeSet<Integer>> copy = new TreeMap<>(locations);
+		for(var locationEntry : copy.entrySet()) {
+			locationEntry.setValue(new TreeSet<>(locationEntry.getValue()));
+		}
+		return copy;
+	}
+
+	/**
+	 * Adds copies of the positions of each location to the locations of a word.
+	 *
+	 * @param locations the locations of a word in this index
+	 * @param other the locations of the same word in another index
+	 */
+	private static void addLocations(TreeMap<String, TreeSet<Integer>> locations,
+			TreeMap<String, TreeSet<Integer>> other) {
+		for(var locationEntry : other.entrySet()) {
+			TreeSet<Integer> positions = locations.get(locationEntry.getKey());
+			if(positions == null) {
+				locations.put(locationEntry.getKey(), new TreeSet<>(locationEntry.getValue()));
 			}
-			//Else paste the whole entry
 			else {
-				this.invertedIndex.put(word, locations);
+				positions.addAll(locationEntry.getValue());
 			}
 		}
+	}
 
+	/**
+	 * Updates the word count of each file location from the inverted index passed
+	 * into function, keeping the larger count if both have the location. The
+	 * words of either index are not changed.
+	 *
+	 * @param otherIndex inverted index to be read from
+	 */
+	public void addCounts(InvertedIndex otherIndex) {
 		//Update the word count for each file location
+		for(var countEntry : otherIndex.countMap.entrySet()) {
+			this.countMap.merge(countEntry.getKey(), countEntry.getValue(), Math::max);
+		}
+	}
+
+	/**
+	 * Combines the words from several indexes into a new index using a k-way
+	 * merge. Since every index keeps its words sorted, the indexes are walked
+	 * together in order and each word is built once from all of its postings.
+	 * Only the words from fromWord (inclusive) to toWord (exclusive) are merged,
+	 * so separate ranges can be merged in parallel. Positions are copied, so the
+	 * new index never shares data with the indexes it was built from. Word
+	 * counts are not merged, and deleted locations are skipped.
+	 *
+	 * @param indexes the indexes to combine, which must not be modified while
+	 *   merging
+	 * @param fromWord the first word to merge, or {@code null} to start at the
+	 *   first word
+	 * @param toWord the word to stop before, or {@code null} to merge through the
+	 *   last word
+	 * @return a new index containing the merged range of words
+	 *
+	 * @see #addCounts(InvertedIndex)
+	 */
+	public static InvertedIndex merge(Collection<InvertedIndex> indexes, String fromWord, String toWord) {
+		InvertedIndex merged = new InvertedIndex();
+		PriorityQueue<WordCursor> cursors = new PriorityQueue<>();
+
+		for(InvertedIndex index : indexes) {
+			NavigableMap<String, TreeMap<String, TreeSet<Integer>>> words = index.invertedIndex;
+			if(fromWord != null) {
+				words = words.tailMap(fromWord, true);
+			}
+			if(toWord != null) {
+				words = words.headMap(toWord, false);
+			}
+
+			WordCursor cursor = new WordCursor(index, words.entrySet().iterator());
+			if(cursor.advance()) {
+				cursors.add(cursor);
+			}
+		}
+
+		while(!cursors.isEmpty()) {
+			String word = cursors.peek().current.getKey();
+			TreeMap<String, TreeSet<Integer>> locations = new TreeMap<>();
+
+			//Every index with this word is at the front of the queue
+			while(!cursors.isEmpty() && cursors.peek().current.getKey().equals(word)) {
+				WordCursor cursor = cursors.poll();
+				for(var entry : cursor.current.getValue().entrySet()) {
+					if(!cursor.index.hasTombstone(entry.getKey())) {
+						locations.computeIfAbsent(entry.getKey(), location -> new TreeSet<>())
+								.addAll(entry.getValue());
+					}
+				}
+
+				if(cursor.advance()) {
+					cursors.add(cursor);
+				}
+			}
+			if(!locations.isEmpty()) {
+				merged.invertedIndex.put(word, locations);
+			}
+		}
+
+		return merged;
+	}
+
+	/**
+	 * Walks the sorted words of one index during a k-way merge.
+	 */
+	private static class WordCursor implements Comparable<WordCursor> {
+		/** The index being walked. */
+		private final InvertedIndex index;
+
+		/** The remaining words of the index. */
+		private final Iterator<Map.Entry<String, TreeMap<String, TreeSet<Integer>>>> iterator;
+
+		/** The word the cursor is currently on. */
+		private Map.Entry<String, TreeMap<String, TreeSet<Integer>>> current;
+
+		/**
+		 * Initializes the cursor before the first word.
+		 *
+		 * @param index the index being walked
+		 * @param iterator the sorted words of the index
+		 */
+		public WordCursor(InvertedIndex index, Iterator<Map.Entry<String, TreeMap<String, TreeSet<Integer>>>> iterator) {
+			this.index = index;
+			this.iterator = iterator;
+			this.current = null;
+		}
+
+		/**
+		 * Moves the cursor to the next word.
+		 *
+		 * @return true if there was another word
+		 */
+		public boolean advance() {
+			current = iterator.hasNext() ? iterator.next() : null;
+			return current != null;
+		}
+
+		@Override
+		public int compareTo(WordCursor o) {
+			return current.getKey().compareTo(o.current.getKey());
+		}
+	}
+
+	/**
+	 * Adds all elements from the inverted index passed into function, shifting
+	 * every position by the offset. This is used to combine pieces of the same
+	 * location that were indexed separately, where each piece starts counting
+	 * positions at 1.
+	 *
+	 * @param otherIndex inverted index to be read from
+	 * @param offset number of words that come before the other index's words
+	 */
+	public void addAll(InvertedIndex otherIndex, int offset) {
+		otherIndex = otherIndex.live();
 		for(String location : otherIndex.countMap.keySet()) {
-			Integer fileCount = otherIndex.countMap.get(location);
-			if(this.countMap.get(location) == null ||
-					this.countMap.get(location) < fileCount) {
-				this.countMap.put(location, fileCount);
+			revive(location);
+		}
+
+		for(var wordEntry : otherIndex.invertedIndex.entrySet()) {
+			TreeMap<String, TreeSet<Integer>> locations =
+					this.invertedIndex.computeIfAbsent(wordEntry.getKey(), word -> new TreeMap<>());
+
+			for(var locationEntry : wordEntry.getValue().entrySet()) {
+				TreeSet<Integer> positions =
+						locations.computeIfAbsent(locationEntry.getKey(), location -> new TreeSet<>());
+
+				for(Integer position : locationEntry.getValue()) {
+					positions.add(position + offset);
+				}
+			}
+		}
+
+		for(var countEntry : otherIndex.countMap.entrySet()) {
+			this.countMap.merge(countEntry.getKey(), countEntry.getValue() + offset, Math::max);
+		}
+	}
+
+	/**
+	 * Removes a file location and all of its positions from the index. Words that
+	 * are left without any locations are removed as well. This walks every word
+	 * in the index, so {@link #delete(String)} followed by a single
+	 * {@link #compact()} is faster when removing many locations.
+	 *
+	 * @param location file location to be removed
+	 * @return true if the location was found in the index
+	 */
+	public boolean remove(String location) {
+		boolean removed = countMap.remove(location) != null;
+		deleted.remove(location);
+		return purge(Set.of(location)) || removed;
+	}
+
+	/**
+	 * Deletes a file location from the index by leaving a tombstone for it. The
+	 * location is immediately hidden from searches and word counts, but its
+	 * positions are only removed from memory by {@link #compact()}.
+	 *
+	 * @param location file location to be deleted
+	 * @return true if the location was found in the index
+	 */
+	public boolean delete(String location) {
+		if(countMap.remove(location) == null) {
+			return false;
+		}
+		deleted.add(location);
+		return true;
+	}
+
+	/**
+	 * Replaces every word of a file location with the provided words, numbering
+	 * positions from 1. The old positions of the location are removed first.
+	 *
+	 * @param words list of stemmed words
+	 * @param location file location whose words are replaced
+	 */
+	public void replace(List<String> words, String location) {
+		delete(location);
+		addAll(words, location);
+	}
+
+	/**
+	 * Applies a batch of file changes as a single update: the removed locations
+	 * and the locations of the updated indexes are deleted, the index is
+	 * compacted once, and the updated indexes are added.
+	 *
+	 * @param updated the index of the new words of each changed location
+	 * @param removed file locations that no longer exist
+	 */
+	public void update(Map<String, InvertedIndex> updated, Collection<String> removed) {
+		for(String location : updated.keySet()) {
+			delete(location);
+		}
+		for(String location : removed) {
+			delete(location);
+		}
+		compact();
+
+		for(InvertedIndex otherIndex : updated.values()) {
+			addAll(otherIndex);
+		}
+	}
+
+	/**
+	 * Adds the words and positions of each original location under each of its
+	 * copies, in a single pass over the words. This is used for documents with
+	 * identical content, so the copies are never analyzed.
+	 *
+	 * @param copies the copies of each original location in this index
+	 */
+	public void addCopies(Map<String, ? extends Collection<String>> copies) {
+		Map<String, Collection<String>> live = new HashMap<>();
+		for(var copyEntry : copies.entrySet()) {
+			Integer count = countMap.get(copyEntry.getKey());
+			if(count != null) {
+				live.put(copyEntry.getKey(), copyEntry.getValue());
+				for(String copy : copyEntry.getValue()) {
+					revive(copy);
+					countMap.put(copy, count);
+				}
+			}
+		}
+		if(live.isEmpty()) {
+			return;
+		}
+
+		for(TreeMap<String, TreeSet<Integer>> locations : invertedIndex.values()) {
+			List<Map.Entry<String, TreeSet<Integer>>> found = new ArrayList<>();
+
+			//Look up whichever side is smaller
+			if(locations.size() < live.size()) {
+				for(var locationEntry : locations.entrySet()) {
+					if(live.containsKey(locationEntry.getKey())) {
+						found.add(locationEntry);
+					}
+				}
+			}
+			else {
+				for(String original : live.keySet()) {
+					TreeSet<Integer> positions = locations.get(original);
+					if(positions != null) {
+						found.add(Map.entry(original, positions));
+					}
+				}
+			}
+
+			for(var locationEntry : found) {
+				for(String copy : live.get(locationEntry.getKey())) {
+					locations.put(copy, new TreeSet<>(locationEntry.getValue()));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes the positions of every deleted location from the index in a single
+	 * pass over the words, along with any words left without locations.
+	 *
+	 * @return the number of deleted locations that were removed
+	 */
+	public int compact() {
+		int count = deleted.size();
+		if(count > 0) {
+			purge(deleted);
+			deleted.clear();
+		}
+		return count;
+	}
+
+	/**
+	 * Determines if the file location was deleted and not yet compacted.
+	 *
+	 * @param location file location to check
+	 * @return true if the location has a tombstone
+	 */
+	public boolean isDeleted(String location) {
+		return hasTombstone(location);
+	}
+
+	/**
+	 * Checks for the tombstone of a file location. Unlike
+	 * {@link #isDeleted(String)} this is never overridden, so it is safe to call
+	 * from within searches without locking again.
+	 *
+	 * @param location file location to check
+	 * @return true if the location has a tombstone
+	 */
+	private boolean hasTombstone(String location) {
+		return !deleted.isEmpty() && deleted.contains(location);
+	}
+
+	/**
+	 * Removes the positions of the locations from every word, and any words left
+	 * without locations.
+	 *
+	 * @param locations file locations to be removed
+	 * @return true if any positions were removed
+	 */
+	private boolean purge(Set<String> locations) {
+		boolean removed = false;
+		var iterator = invertedIndex.values().iterator();
+
+		while(iterator.hasNext()) {
+			TreeMap<String, TreeSet<Integer>> wordLocations = iterator.next();
+			if(wordLocations.keySet().removeAll(locations)) {
+				removed = true;
+				if(wordLocations.isEmpty()) {
+					iterator.remove();
+				}
 			}
 		}
+		return removed;
+	}
+
+	/**
+	 * Removes the old positions of a deleted location before new positions are
+	 * added to it, so the old and new positions are never mixed.
+	 *
+	 * @param location file location about to be added to
+	 */
+	private void revive(String location) {
+		if(hasTombstone(location)) {
+			deleted.remove(location);
+			purge(Set.of(location));
+		}
+	}
+
+	/**
+	 * Returns this index if nothing is deleted, or else a compacted copy of it.
+	 *
+	 * @return an index without any deleted locations
+	 */
+	private InvertedIndex live() {
+		if(deleted.isEmpty()) {
+			return this;
+		}
+
+		InvertedIndex copy = new InvertedIndex();
+		for(var wordEntry : invertedIndex.entrySet()) {
+			copy.invertedIndex.put(wordEntry.getKey(), copyLocations(wordEntry.getValue()));
+		}
+		copy.countMap.putAll(countMap);
+		copy.purge(deleted);
+		return copy;
 	}
 
 	/**
@@ -201,12 +612,22 @@ public class InvertedIndex {
 	 * @param stem stem key to reference
 	 * @param lookup lookup map for existing QueryResults in result list
 	 * @param results list containing query results from query search
+	 * @throws CancellationException if the searching thread was interrupted
 	 */
 	private void updateResult(String stem, Map<String, QueryResult> lookup,
 			List<QueryResult> results) {
+		//Lets a cancelled search stop early instead of scanning every word
+		if(Thread.currentThread().isInterrupted()) {
+			throw new CancellationException("Search interrupted.");
+		}
+
 		QueryResult queryResult = null;
 
 		for(String fileLocation: invertedIndex.get(stem).keySet()) {
+			if(hasTombstone(fileLocation)) {
+				continue;
+			}
+
 			queryResult = lookup.get(fileLocation);
 			if (queryResult == null) {
 				queryResult = new QueryResult(fileLocation);
@@ -221,7 +642,9 @@ public class InvertedIndex {
 	}
 
 	/**
-	 * Returns an unmodifiable set of word stems from invertedIndex.
+	 * Returns an unmodifiable set of word stems from invertedIndex. Until the
+	 * next {@link #compact()}, this may include words only found in deleted
+	 * locations.
 	 *
 	 * @return an unmodifiable index map
 	 */
@@ -237,9 +660,16 @@ public class InvertedIndex {
 	 * @return an unmodifiable Set of positions
 	 */
 	public Set<String> getLocations(String stem) {
-		return hasStem(stem)
-				? Collections.unmodifiableSet(invertedIndex.get(stem).keySet())
-				: Collections.emptySet();
+		if(!hasStem(stem)) {
+			return Collections.emptySet();
+		}
+
+		Set<String> locations = invertedIndex.get(stem).keySet();
+		if(!deleted.isEmpty()) {
+			locations = new TreeSet<>(locations);
+			locations.removeAll(deleted);
+		}
+		return Collections.unmodifiableSet(locations);
 	}
 
 	/**
@@ -273,7 +703,7 @@ public class InvertedIndex {
 	 * @return true if location exists under word stem key
 	 */
 	public boolean hasLocation(String stem, String location) {
-		return hasStem(stem) && invertedIndex.get(stem).containsKey(location);
+		return hasStem(stem) && invertedIndex.get(stem).containsKey(location) && !hasTombstone(location);
 	}
 
 	/**
@@ -291,7 +721,9 @@ public class InvertedIndex {
 	}
 
 	/**
-	 * Returns number of word stem keys in index.
+	 * Returns number of word stem keys in index. Until the next
+	 * {@link #compact()}, this may include words only found in deleted
+	 * locations.
 	 *
 	 * @return size of invertedIndex map
 	 */
@@ -307,7 +739,7 @@ public class InvertedIndex {
 	 */
 	public int locationCount(String stem) {
 		return hasStem(stem)
-				? invertedIndex.get(stem).size()
+				? getLocations(stem).size()
 				: 0;
 	}
 
@@ -338,7 +770,7 @@ public class InvertedIndex {
 	 * @throws IOException file is invalid or can not be found
 	 */
 	public void indexToJson(Path output) throws IOException {
-			JsonWriter.asNestedObject(invertedIndex, output);
+			JsonWriter.asNestedObject(live().invertedIndex, output);
 	}
 
 	/**
@@ -352,6 +784,84 @@ public class InvertedIndex {
 			JsonWriter.asObject(countMap, output);
 	}
 
+	/**
+	 * Writes the index in a compact binary form that can be read back with
+	 * {@link #read(DataInputStream)}. Each location is written once in a table
+	 * and referred to by its position in that table afterwards.
+	 *
+	 * @param out the stream to write to
+	 * @throws IOException if unable to write to the stream
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		if(!deleted.isEmpty()) {
+			live().write(out);
+			return;
+		}
+
+		Map<String, Integer> table = new HashMap<>();
+		out.writeInt(countMap.size());
+		for(var countEntry : countMap.entrySet()) {
+			table.put(countEntry.getKey(), table.size());
+			out.writeUTF(countEntry.getKey());
+			out.writeInt(countEntry.getValue());
+		}
+
+		out.writeInt(invertedIndex.size());
+		for(var wordEntry : invertedIndex.entrySet()) {
+			out.writeUTF(wordEntry.getKey());
+			out.writeInt(wordEntry.getValue().size());
+
+			for(var locationEntry : wordEntry.getValue().entrySet()) {
+				out.writeInt(table.get(locationEntry.getKey()));
+				out.writeInt(locationEntry.getValue().size());
+				for(Integer position : locationEntry.getValue()) {
+					out.writeInt(position);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads an index written by {@link #write(DataOutputStream)} and adds it to
+	 * this index.
+	 *
+	 * @param in the stream to read from
+	 * @throws IOException if unable to read from the stream or the data is not
+	 *   a valid index
+	 */
+	public void read(DataInputStream in) throws IOException {
+		InvertedIndex other = new InvertedIndex();
+		String[] table = new String[in.readInt()];
+		for(int i = 0; i < table.length; i++) {
+			table[i] = in.readUTF();
+			other.countMap.put(table[i], in.readInt());
+		}
+
+		int words = in.readInt();
+		for(int i = 0; i < words; i++) {
+			TreeMap<String, TreeSet<Integer>> locations = new TreeMap<>();
+			other.invertedIndex.put(in.readUTF(), locations);
+
+			int locationCount = in.readInt();
+			for(int j = 0; j < locationCount; j++) {
+				TreeSet<Integer> positions = new TreeSet<>();
+				try {
+					locations.put(table[in.readInt()], positions);
+				}
+				catch(ArrayIndexOutOfBoundsException e) {
+					throw new IOException("Invalid location in saved index.", e);
+				}
+
+				int positionCount = in.readInt();
+				for(int k = 0; k < positionCount; k++) {
+					positions.add(in.readInt());
+				}
+			}
+		}
+
+		addAll(other);
+	}
+
 	/**
 	 * This class holds the results from the query search.
 	 */
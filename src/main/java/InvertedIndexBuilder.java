@@ -1,14 +1,19 @@
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import opennlp.tools.stemmer.Stemmer;
-import opennlp.tools.stemmer.snowball.SnowballStemmer;
 
 /**
  * This class holds word stems and all of the files and positions within those
@@ -22,17 +27,54 @@ public class InvertedIndexBuilder implements IndexBuilder {
 	 */
 	private final InvertedIndex invertedIndex;
 
+	/** The analyzer used to turn each line of text into index terms. */
+	private final TextAnalyzer analyzer;
+
+	/** Skips files identical to one already read, or {@code null} to read every file. */
+	private final DuplicateFilter filter;
+
 	/**
 	 * Passes an invertedIndex into the class to be altered.
 	 *
 	 * @param invertedIndex invertedIndex to be entered
 	 */
 	public InvertedIndexBuilder(InvertedIndex invertedIndex) {
+		this(invertedIndex, new TextAnalyzer());
+	}
+
+	/**
+	 * Passes an invertedIndex into the class to be altered along with the
+	 * analyzer used to read files.
+	 *
+	 * @param invertedIndex invertedIndex to be entered
+	 * @param analyzer analyzer used to turn text into index terms
+	 */
+	public InvertedIndexBuilder(InvertedIndex invertedIndex, TextAnalyzer analyzer) {
+		this(invertedIndex, analyzer, null);
+	}
+
+	/**
+	 * Passes an invertedIndex into the class to be altered along with the
+	 * analyzer used to read files and the filter used to skip identical files.
+	 *
+	 * @param invertedIndex invertedIndex to be entered
+	 * @param analyzer analyzer used to turn text into index terms
+	 * @param filter filter that skips files identical to one already read, or
+	 *   {@code null} to read every file
+	 */
+	public InvertedIndexBuilder(InvertedIndex invertedIndex, TextAnalyzer analyzer, DuplicateFilter filter) {
 		this.invertedIndex = invertedIndex;
+		this.analyzer = analyzer;
+		this.filter = filter;
 	}
 
 	public void readFile(Path path) throws IOException {
-		readFile(path, this.invertedIndex);
+		if(filter == null) {
+			readFile(path, this.invertedIndex, analyzer);
+		}
+		else {
+			readFile(path, this.invertedIndex, analyzer, filter);
+		}
 	}
 
 	/**
@@ -44,16 +86,80 @@ public class InvertedIndexBuilder implements IndexBuilder {
 	 * @throws IOException file is invalid or can not be found
 	 */
 	public static void readFile(Path path, InvertedIndex invertedIndex) throws IOException {
-		try(BufferedReader br = Files.newBufferedReader(path)) {
-			Stemmer stemmer = new SnowballStemmer(TextStemmer.ENGLISH);
-			String line, pathString = path.toString();
-			int i = 1;
-			while((line = br.readLine()) != null) {
-				for(String word: TextParser.parse(line)) {
-					invertedIndex.add(stemmer.stem(word).toString(), pathString, i++);
-				}
+		readFile(path, invertedIndex, new TextAnalyzer());
+	}
+
+	/**
+	 * Reads the file path into the specified invertedIndex using the terms
+	 * produced by the analyzer. Compressed files are decompressed as they are
+	 * read.
+	 *
+	 * @param path file path to be read
+	 * @param invertedIndex the index that will append the analyzed words from the
+	 * 	file
+	 * @param analyzer analyzer used to turn each line into index terms
+	 * @throws IOException file is invalid or can not be found
+	 */
+	public static void readFile(Path path, InvertedIndex invertedIndex, TextAnalyzer analyzer) throws IOException {
+		try(BufferedReader br = IndexBuilder.newBufferedReader(path)) {
+			readLines(br, path.toString(), invertedIndex, analyzer);
+		}
+	}
+
+	/**
+	 * Reads the file path into the specified invertedIndex unless the filter has
+	 * already seen a file with identical content. The file is read into memory
+	 * once to be both hashed and analyzed, and compared by its decompressed
+	 * content if it is compressed.
+	 *
+	 * @param path file path to be read
+	 * @param invertedIndex the index that will append the analyzed words from the
+	 * 	file
+	 * @param analyzer analyzer used to turn each line into index terms
+	 * @param filter filter that records the file as a copy if it was seen before
+	 * @throws IOException file is invalid or can not be found
+	 *
+	 * @see DuplicateFilter#apply(InvertedIndex)
+	 */
+	public static void readFile(Path path, InvertedIndex invertedIndex, TextAnalyzer analyzer,
+			DuplicateFilter filter) throws IOException {
+		byte[] content = IndexBuilder.readAllBytes(path);
+		if(filter.isDuplicate(path.toString(), content)) {
+			return;
+		}
+
+		//Malformed input is reported just like Files.newBufferedReader
+		try(BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(content),
+				StandardCharsets.UTF_8.newDecoder()))) {
+			readLines(br, path.toString(), invertedIndex, analyzer);
+		}
+	}
+
+	/**
+	 * Reads every line from the reader into the specified invertedIndex under
+	 * the given location, numbering positions from 1.
+	 *
+	 * @param br reader positioned at the first line to be read
+	 * @param location location the words are added under
+	 * @param invertedIndex the index that will append the analyzed words
+	 * @param analyzer analyzer used to turn each line into index terms
+	 * @return number of words added
+	 * @throws IOException if unable to read from the reader
+	 */
+	public static int readLines(BufferedReader br, String location, InvertedIndex invertedIndex,
+			TextAnalyzer analyzer) throws IOException {
+		Stemmer stemmer = analyzer.newStemmer();
+		List<String> words = new ArrayList<>();
+		String line;
+		int i = 0;
+		while((line = br.readLine()) != null) {
+			words.clear();
+			analyzer.analyzeLine(line, stemmer, words);
+			for(String word: words) {
+				invertedIndex.add(word, location, ++i);
 			}
 		}
+		return i;
 	}
 
 	public void build(Path mainPath) throws IOException
@@ -64,5 +170,20 @@ public class InvertedIndexBuilder implements IndexBuilder {
 		else {
 			readFile(mainPath);
 		}
+
+		if(filter != null) {
+			filter.apply(invertedIndex);
+		}
+	}
+
+	@Override
+	public void build(Collection<Path> paths) throws IOException {
+		for(Path path : paths) {
+			readFile(path);
+		}
+
+		if(filter != null) {
+			filter.apply(invertedIndex);
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,35 @@
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Fetches the HTML of web pages for the crawler. A fetcher may block the
+ * calling thread and return a completed future, like {@link HtmlFetcher}, or
+ * send the request without blocking and complete the future once the response
+ * arrives, like {@link AsyncHtmlFetcher}. Either way, the future completes with
+ * {@code null} (rather than an exception) if the page could not be fetched or
+ * is not HTML.
+ *
+ * @author Adon Anglon
+ */
+@FunctionalInterface
+public interface PageFetcher {
+	/**
+	 * Fetches the HTML of the page, following redirects up to the given limit.
+	 *
+	 * @param url the url to fetch
+	 * @param redirects the number of times to follow redirects
+	 * @return the future html, which is {@code null} if unable to fetch the
+	 *   page or the page is not html
+	 */
+	CompletableFuture<String> fetch(URL url, int redirects);
+
+	/**
+	 * Returns a fetcher that fetches each page with {@link HtmlFetcher} on the
+	 * calling thread.
+	 *
+	 * @return a blocking fetcher
+	 */
+	static PageFetcher blocking() {
+		return (url, redirects) -> CompletableFuture.completedFuture(HtmlFetcher.fetch(url, redirects));
+	}
+}
@@ -0,0 +1,429 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.Level;
+
+import opennlp.tools.stemmer.Stemmer;
+
+/**
+ * This class populates an inverted index using a pipeline of stages connected
+ * by bounded queues: directory discovery (on the calling thread), file reading,
+ * analysis, and merging into the shared index. When a stage falls behind, its
+ * input queue fills up and the stage before it blocks, so the number of paths,
+ * documents, and partial indexes held in memory at once stays bounded no matter
+ * how large the directory tree is. Reading and analysis run on separate
+ * threads, so disk waits overlap with stemming.
+ *
+ * Only a single thread merges into the shared index, so partial indexes never
+ * compete with each other for the write lock.
+ *
+ * @author Adon Anglon
+ */
+public class PipelinedIndexBuilder implements IndexBuilder {
+	/** The default capacity of each queue between stages. */
+	public static final int DEFAULT_CAPACITY = 64;
+
+	/** The default number of threads reading files. */
+	public static final int DEFAULT_READERS = 2;
+
+	/**
+	 * This InvertedIndex will be a reference for the index passed into the function.
+	 */
+	private final ThreadSafeInvertedIndex invertedIndex;
+
+	/** The analyzer used to turn each line of text into index terms. */
+	private final TextAnalyzer analyzer;
+
+	/** The number of threads reading files. */
+	private final int readers;
+
+	/** The number of threads analyzing documents. */
+	private final int analyzers;
+
+	/** The capacity of each queue between stages. */
+	private final int capacity;
+
+	/** The files the current build was unable to read. */
+	private final Set<Path> unread;
+
+	/** The queue of discovered paths for the current build. */
+	private BlockingQueue<Path> paths;
+
+	/**
+	 * Initializes the builder with the default queue capacity and number of
+	 * readers.
+	 *
+	 * @param index invertedIndex to be entered
+	 * @param analyzer analyzer used to turn text into index terms
+	 * @param analyzers number of threads analyzing documents
+	 */
+	public PipelinedIndexBuilder(ThreadSafeInvertedIndex index, TextAnalyzer analyzer, int analyzers) {
+		this(index, analyzer, DEFAULT_READERS, analyzers, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Initializes the builder.
+	 *
+	 * @param index invertedIndex to be entered
+	 * @param analyzer analyzer used to turn text into index terms
+	 * @param readers number of threads reading files
+	 * @param analyzers number of threads analyzing documents
+	 * @param capacity capacity of each queue between stages
+	 */
+	public PipelinedIndexBuilder(ThreadSafeInvertedIndex index, TextAnalyzer analyzer, int readers,
+			int analyzers, int capacity) {
+		this.invertedIndex = index;
+		this.analyzer = analyzer;
+		this.readers = Math.max(1, readers);
+		this.analyzers = Math.max(1, analyzers);
+		this.capacity = Math.max(1, capacity);
+		this.unread = ConcurrentHashMap.newKeySet();
+	}
+
+	/**
+	 * Starts the reading, analysis and merging stages, then walks the path on the
+	 * calling thread. Returns once every discovered file has been merged into
+	 * the index.
+	 */
+	@Override
+	public void build(Path mainPath) throws IOException {
+		run(() -> {
+			if(Files.isDirectory(mainPath)) {
+				readFiles(mainPath);
+			}
+			else {
+				readFile(mainPath);
+			}
+		});
+	}
+
+	/**
+	 * Starts the reading, analysis and merging stages, then passes each listed
+	 * file to the reading stage on the calling thread.
+	 */
+	@Override
+	public void build(Collection<Path> paths) throws IOException {
+		run(() -> {
+			for(Path path : paths) {
+				readFile(path);
+			}
+		});
+	}
+
+	/**
+	 * Starts the reading, analysis and merging stages and runs the discovery
+	 * stage on the calling thread. Returns once every discovered file has been
+	 * merged into the index.
+	 *
+	 * @param discovery passes each file to be read to {@link #readFile(Path)}
+	 * @throws IOException if the discovery stage is unable to walk the files
+	 */
+	private synchronized void run(Discovery discovery) throws IOException {
+		unread.clear();
+		paths = new ArrayBlockingQueue<>(capacity);
+		BlockingQueue<Document> documents = new ArrayBlockingQueue<>(capacity);
+		BlockingQueue<InvertedIndex> indexes = new ArrayBlockingQueue<>(capacity);
+
+		List<Stage<?, ?>> stages = List.of(
+				new Stage<>("Reader", readers, paths, END_PATH, documents, END_DOCUMENT, this::read),
+				new Stage<>("Analyzer", analyzers, documents, END_DOCUMENT, indexes, END_INDEX, this::analyze),
+				new Stage<>("Merger", 1, indexes, END_INDEX, null, null, this::merge));
+
+		for(Stage<?, ?> stage : stages) {
+			stage.start();
+		}
+
+		try {
+			discovery.run();
+		}
+		finally {
+			put(paths, END_PATH);
+			for(Stage<?, ?> stage : stages) {
+				stage.join();
+			}
+		}
+	}
+
+	@Override
+	public Collection<Path> getUnread() {
+		return Collections.unmodifiableSet(unread);
+	}
+
+	/**
+	 * Passes the path to the reading stage, blocking while that stage is full.
+	 */
+	@Override
+	public void readFile(Path path) throws IOException {
+		put(paths, path);
+	}
+
+	/**
+	 * Reads every line of the file into memory.
+	 *
+	 * @param path file path to be read
+	 * @return the lines of the file
+	 * @throws IOException file is invalid or can not be found
+	 */
+	private Document read(Path path) throws IOException {
+		List<String> lines = new ArrayList<>();
+		try(BufferedReader br = IndexBuilder.newBufferedReader(path)) {
+			String line;
+			while((line = br.readLine()) != null) {
+				lines.add(line);
+			}
+		}
+		catch(IOException e) {
+			unread.add(path);
+			throw e;
+		}
+		return new Document(path.toString(), lines);
+	}
+
+	/**
+	 * Analyzes the lines of a document into a partial index.
+	 *
+	 * @param document the document to be analyzed
+	 * @return an index of only that document
+	 */
+	private InvertedIndex analyze(Document document) {
+		InvertedIndex tempIndex = new InvertedIndex();
+		Stemmer stemmer = analyzer.newStemmer();
+		List<String> words = new ArrayList<>();
+		int i = 0;
+
+		for(String line : document.lines) {
+			words.clear();
+			analyzer.analyzeLine(line, stemmer, words);
+			for(String word : words) {
+				tempIndex.add(word, document.location, ++i);
+			}
+		}
+		return tempIndex;
+	}
+
+	/**
+	 * Merges a partial index into the shared index.
+	 *
+	 * @param tempIndex the partial index to be merged
+	 * @return always {@code null} since this is the last stage
+	 */
+	private Void merge(InvertedIndex tempIndex) {
+		invertedIndex.addAll(tempIndex);
+		return null;
+	}
+
+	/**
+	 * Puts the item in the queue, waiting for space if necessary.
+	 *
+	 * @param <T> the type of item
+	 * @param queue the queue to add to
+	 * @param item the item to add
+	 */
+	private static <T> void put(BlockingQueue<T> queue, T item) {
+		try {
+			queue.put(item);
+		}
+		catch(InterruptedException e) {
+			log.catching(Level.DEBUG, e);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** Marks the end of the discovered paths. */
+	private static final Path END_PATH = Path.of("");
+
+	/** Marks the end of the read documents. */
+	private static final Document END_DOCUMENT = new Document("", List.of());
+
+	/** Marks the end of the partial indexes. */
+	private static final InvertedIndex END_INDEX = new InvertedIndex();
+
+	/**
+	 * The lines read from a single file.
+	 */
+	private static class Document {
+		/** The location the lines are indexed under. */
+		private final String location;
+
+		/** The lines of the file. */
+		private final List<String> lines;
+
+		/**
+		 * Initializes the document.
+		 *
+		 * @param location the location the lines are indexed under
+		 * @param lines the lines of the file
+		 */
+		public Document(String location, List<String> lines) {
+			this.location = location;
+			this.lines = lines;
+		}
+	}
+
+	/**
+	 * Finds the files to be read on the calling thread.
+	 */
+	@FunctionalInterface
+	private interface Discovery {
+		/**
+		 * Passes each file to be read to the reading stage.
+		 *
+		 * @throws IOException if unable to walk the files
+		 */
+		void run() throws IOException;
+	}
+
+	/**
+	 * A single step of a stage that may fail to read from disk.
+	 *
+	 * @param <T> the type of item taken from the input queue
+	 * @param <R> the type of result passed to the output queue
+	 */
+	@FunctionalInterface
+	private interface Step<T, R> {
+		/**
+		 * Processes a single item.
+		 *
+		 * @param item the item to process
+		 * @return the result, or {@code null} if there is nothing to pass on
+		 * @throws IOException if unable to read the item
+		 */
+		R apply(T item) throws IOException;
+	}
+
+	/**
+	 * A group of threads taking items from one bounded queue and putting their
+	 * results on the next. Each stage ends when it takes the end marker of its
+	 * input queue. The end marker is put back so every thread of the stage sees
+	 * it, and the last thread to finish passes the end marker of the output queue
+	 * on to the next stage.
+	 *
+	 * @param <T> the type of item taken from the input queue
+	 * @param <R> the type of result passed to the output queue
+	 */
+	private static class Stage<T, R> {
+		/** The threads of this stage. */
+		private final Thread[] threads;
+
+		/** The number of threads still running. */
+		private final AtomicInteger running;
+
+		/** The queue items are taken from. */
+		private final BlockingQueue<T> input;
+
+		/** The end marker of the input queue. */
+		private final T inputEnd;
+
+		/** The queue results are put on, or {@code null} for the last stage. */
+		private final BlockingQueue<R> output;
+
+		/** The end marker of the output queue. */
+		private final R outputEnd;
+
+		/** The step applied to each item. */
+		private final Step<T, R> step;
+
+		/**
+		 * Initializes the stage without starting its threads.
+		 *
+		 * @param name the name used for the stage threads
+		 * @param size the number of threads
+		 * @param input the queue items are taken from
+		 * @param inputEnd the end marker of the input queue
+		 * @param output the queue results are put on, or {@code null}
+		 * @param outputEnd the end marker of the output queue
+		 * @param step the step applied to each item
+		 */
+		public Stage(String name, int size, BlockingQueue<T> input, T inputEnd, BlockingQueue<R> output,
+				R outputEnd, Step<T, R> step) {
+			this.threads = new Thread[size];
+			this.running = new AtomicInteger(size);
+			this.input = input;
+			this.inputEnd = inputEnd;
+			this.output = output;
+			this.outputEnd = outputEnd;
+			this.step = step;
+
+			for(int i = 0; i < size; i++) {
+				threads[i] = new Thread(this::run, name + i);
+			}
+		}
+
+		/**
+		 * Starts every thread of this stage.
+		 */
+		public void start() {
+			for(Thread thread : threads) {
+				thread.start();
+			}
+		}
+
+		/**
+		 * Waits for every thread of this stage to terminate.
+		 */
+		public void join() {
+			try {
+				for(Thread thread : threads) {
+					thread.join();
+				}
+			}
+			catch(InterruptedException e) {
+				log.error("Warning: Index pipeline interrupted while joining.");
+				log.catching(Level.DEBUG, e);
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/**
+		 * Takes items until the end marker is found.
+		 */
+		private void run() {
+			try {
+				while(true) {
+					T item = input.take();
+					if(item == inputEnd) {
+						input.put(item);
+						break;
+					}
+
+					try {
+						R result = step.apply(item);
+						if(result != null && output != null) {
+							output.put(result);
+						}
+					}
+					catch(IOException e) {
+						log.debug("An IO error was thrown and needs to be handled.");
+					}
+					catch(RuntimeException e) {
+						// catch runtime exceptions to avoid losing a stage thread
+						log.error("Warning: Thread {} encountered an exception while running.",
+								Thread.currentThread().getName());
+						log.catching(Level.DEBUG, e);
+					}
+				}
+			}
+			catch(InterruptedException e) {
+				log.error("Warning: Thread {} interrupted while waiting.", Thread.currentThread().getName());
+				log.catching(Level.DEBUG, e);
+				Thread.currentThread().interrupt();
+			}
+			finally {
+				if(running.decrementAndGet() == 0 && output != null) {
+					put(output, outputEnd);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,347 @@
+import java.io.Closeable;
+import java.net.URL;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Schedules the requests of another {@link PageFetcher} so each host is
+ * fetched politely: no more than a few requests to a host are in flight at
+ * once, and requests to a host start at least a minimum delay apart.
+ *
+ * Requests that must wait for their host are queued per host without holding
+ * a thread, so the workers keep fetching from every other host in the
+ * meantime. A crawl spread over many hosts keeps its full throughput, while a
+ * single host only ever sees a steady trickle of requests.
+ *
+ * This class is thread safe.
+ *
+ * @author Adon Anglon
+ */
+public class PoliteFetcher implements PageFetcher, Closeable {
+	/** The log4j2 logger. */
+	private static final Logger log = LogManager.getLogger();
+
+	/** The default number of requests in flight to each host. */
+	public static final int DEFAULT_PER_HOST = 2;
+
+	/** The default minimum time between the start of two requests to a host. */
+	public static final Duration DEFAULT_DELAY = Duration.ofMillis(500);
+
+	/** The fetcher the requests are sent with. */
+	private final PageFetcher fetcher;
+
+	/** Runs the requests of the fetcher once their host allows. */
+	private final Executor executor;
+
+	/** The number of requests in flight to each host. */
+	private final int perHost;
+
+	/** The minimum time between the start of two requests to a host, in nanoseconds. */
+	private final long delay;
+
+	/** The requests and timing of each host with requests in flight or waiting. */
+	private final Map<String, Host> hosts;
+
+	/** Wakes up hosts once their delay has passed. */
+	private final ScheduledExecutorService timer;
+
+	/** The number of requests that had to wait for their host. */
+	private final AtomicLong delayed;
+
+	/** The number of requests sent. */
+	private final AtomicLong sent;
+
+	/**
+	 * Initializes a scheduler for a fetcher that does not block, such as
+	 * {@link AsyncHtmlFetcher}, with the default limits.
+	 *
+	 * @param fetcher the fetcher the requests are sent with
+	 */
+	public PoliteFetcher(PageFetcher fetcher) {
+		this(fetcher, Runnable::run, DEFAULT_PER_HOST, DEFAULT_DELAY);
+	}
+
+	/**
+	 * Initializes a scheduler. A fetcher that blocks, such as
+	 * {@link PageFetcher#blocking()}, should be given an executor with enough
+	 * threads to keep many hosts busy, since each request holds one of its
+	 * threads. A fetcher that does not block may be started on the thread that
+	 * frees up its host with {@code Runnable::run}.
+	 *
+	 * @param fetcher the fetcher the requests are sent with
+	 * @param executor runs the requests of the fetcher once their host allows
+	 * @param perHost the number of requests in flight to each host
+	 * @param delay the minimum time between the start of two requests to a host
+	 */
+	public PoliteFetcher(PageFetcher fetcher, Executor executor, int perHost, Duration delay) {
+		this.fetcher = fetcher;
+		this.executor = executor;
+		this.perHost = Math.max(1, perHost);
+		this.delay = Math.max(0, delay.toNanos());
+		this.hosts = new ConcurrentHashMap<>();
+		this.timer = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task);
+			thread.setName("Polite" + thread.getName());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.delayed = new AtomicLong();
+		this.sent = new AtomicLong();
+	}
+
+	/**
+	 * Queues the request behind the other requests to its host, and sends it
+	 * once the host has a free slot and its delay has passed.
+	 */
+	@Override
+	public CompletableFuture<String> fetch(URL url, int redirects) {
+		Request request = new Request(url, redirects);
+		String key = key(url);
+
+		// the map bin is locked before the host, here and when idle hosts are removed
+		Host host = hosts.compute(key, (k, existing) -> {
+			Host queued = existing == null ? new Host(k) : existing;
+			synchronized(queued) {
+				queued.waiting.add(request);
+			}
+			return queued;
+		});
+
+		dispatch(host);
+		return request.result;
+	}
+
+	/**
+	 * Sends the waiting requests of a host that its limits allow, and sets a
+	 * timer to try again once its delay passes if requests are still waiting.
+	 *
+	 * @param host the host to send requests to
+	 */
+	private void dispatch(Host host) {
+		List<Request> ready = new ArrayList<>();
+
+		synchronized(host) {
+			long now = System.nanoTime();
+			while(host.active < perHost && !host.waiting.isEmpty()) {
+				long wait = host.nextStart - now;
+				if(wait > 0) {
+					if(!host.scheduled) {
+						host.scheduled = true;
+						delayed.incrementAndGet();
+						timer.schedule(() -> wake(host), wait, TimeUnit.NANOSECONDS);
+					}
+					break;
+				}
+				host.active++;
+				host.nextStart = now + delay;
+				ready.add(host.waiting.poll());
+			}
+		}
+
+		for(Request request : ready) {
+			try {
+				executor.execute(() -> send(host, request));
+			}
+			catch(RejectedExecutionException e) {
+				log.debug("Unable to fetch " + request.url + " after the fetch queue shut down.");
+				finish(host, request, null);
+			}
+		}
+	}
+
+	/**
+	 * Lets a host send requests again once its delay has passed.
+	 *
+	 * @param host the host whose delay passed
+	 */
+	private void wake(Host host) {
+		synchronized(host) {
+			host.scheduled = false;
+		}
+		dispatch(host);
+	}
+
+	/**
+	 * Sends a request with the fetcher, and frees its slot once the response
+	 * completes.
+	 *
+	 * @param host the host of the request
+	 * @param request the request to send
+	 */
+	private void send(Host host, Request request) {
+		sent.incrementAndGet();
+		try {
+			fetcher.fetch(request.url, request.redirects)
+					.whenComplete((html, error) -> finish(host, request, error == null ? html : null));
+		}
+		catch(RuntimeException e) {
+			log.debug("Unable to fetch " + request.url);
+			finish(host, request, null);
+		}
+	}
+
+	/**
+	 * Frees the slot of a finished request, sends the next waiting request of
+	 * the host, and completes the request.
+	 *
+	 * @param host the host of the request
+	 * @param request the finished request
+	 * @param html the fetched page, or {@code null} if it was not fetched
+	 */
+	private void finish(Host host, Request request, String html) {
+		boolean idle;
+		long idleAt;
+		synchronized(host) {
+			host.active--;
+			idle = host.active == 0 && host.waiting.isEmpty();
+			idleAt = host.nextStart;
+		}
+		dispatch(host);
+
+		if(idle) {
+			try {
+				// the host is kept until its delay passes, so a new request to it still waits
+				timer.schedule(() -> release(host), Math.max(0, idleAt - System.nanoTime()), TimeUnit.NANOSECONDS);
+			}
+			catch(RejectedExecutionException e) {
+				log.debug("Not releasing host {} after the fetcher closed.", host.key);
+			}
+		}
+		request.result.complete(html);
+	}
+
+	/**
+	 * Forgets a host once nothing is waiting or in flight and its delay has
+	 * passed, so a crawl over many hosts does not keep every host it has seen.
+	 * A host that got new requests in the meantime is kept, and released again
+	 * once those finish.
+	 *
+	 * @param host the host that may be idle
+	 */
+	private void release(Host host) {
+		hosts.computeIfPresent(host.key, (k, existing) -> {
+			synchronized(existing) {
+				boolean idle = existing.active == 0 && existing.waiting.isEmpty() && !existing.scheduled
+						&& existing.nextStart - System.nanoTime() <= 0;
+				return idle ? null : existing;
+			}
+		});
+	}
+
+	/**
+	 * Returns the key requests are limited by.
+	 *
+	 * @param url the url to fetch
+	 * @return the host of the url
+	 */
+	private static String key(URL url) {
+		return url.getHost().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Returns the number of requests that had to wait for the delay of their
+	 * host.
+	 *
+	 * @return the number of delayed requests
+	 */
+	public long getDelayed() {
+		return delayed.get();
+	}
+
+	/**
+	 * Returns the number of requests sent.
+	 *
+	 * @return the number of requests sent
+	 */
+	public long getSent() {
+		return sent.get();
+	}
+
+	/**
+	 * Stops the timer. Requests still waiting for their host are not sent.
+	 */
+	@Override
+	public void close() {
+		timer.shutdownNow();
+	}
+
+	@Override
+	public String toString() {
+		return "[sent: " + sent.get() + ", delayed: " + delayed.get() + ", hosts: " + hosts.size() + "]";
+	}
+
+	/**
+	 * The waiting requests and timing of a single host.
+	 */
+	private static class Host {
+		/** The key of the host. */
+		private final String key;
+
+		/** The requests waiting for a free slot or the delay to pass. */
+		private final Queue<Request> waiting;
+
+		/** The number of requests in flight. */
+		private int active;
+
+		/** The earliest time the next request may start, from {@link System#nanoTime()}. */
+		private long nextStart;
+
+		/** Whether a timer is set to wake up this host. */
+		private boolean scheduled;
+
+		/**
+		 * Initializes a host with nothing in flight that may be fetched right away.
+		 *
+		 * @param key the key of the host
+		 */
+		private Host(String key) {
+			this.key = key;
+			this.waiting = new ArrayDeque<>();
+			this.active = 0;
+			this.nextStart = System.nanoTime();
+			this.scheduled = false;
+		}
+	}
+
+	/**
+	 * A request waiting for its host, and the result it completes.
+	 */
+	private static class Request {
+		/** The url to fetch. */
+		private final URL url;
+
+		/** The number of times to follow redirects. */
+		private final int redirects;
+
+		/** The future html of the page. */
+		private final CompletableFuture<String> result;
+
+		/**
+		 * Initializes a request.
+		 *
+		 * @param url the url to fetch
+		 * @param redirects the number of times to follow redirects
+		 */
+		private Request(URL url, int redirects) {
+			this.url = url;
+			this.redirects = redirects;
+			this.result = new CompletableFuture<>();
+		}
+	}
+}
@@ -61,7 +61,7 @@ public interface QueryBuilder {
 	 * @see #readQueryLine(String, boolean)
 	 */
 	default void readQueryFile(Path path, boolean exact) throws IOException {
-		try(BufferedReader br = Files.newBufferedReader(path)) {
+		try(BufferedReader br = IndexBuilder.newBufferedReader(path)) {
 			String line;
 			while((line = br.readLine()) != null) {
 				readQueryLine(line, exact);
@@ -23,6 +23,9 @@ public class QueryResultBuilder implements QueryBuilder {
 	 */
 	private final InvertedIndex index;
 
+	/** The analyzer used to turn each query line into search terms. */
+	private final TextAnalyzer analyzer;
+
 	/**
 	 * Initializes the queryResult and queryList instance members to a new
 	 * TreeMap and ArrayList respectively.
@@ -30,7 +33,19 @@ public class QueryResultBuilder implements QueryBuilder {
 	 * @param index invertedIndex to be referenced
 	 */
 	public QueryResultBuilder(InvertedIndex index) {
+		this(index, new TextAnalyzer());
+	}
+
+	/**
+	 * Initializes the queryResult map and the analyzer used for query lines,
+	 * which should match the one used to build the index.
+	 *
+	 * @param index invertedIndex to be referenced
+	 * @param analyzer analyzer used to turn query lines into search terms
+	 */
+	public QueryResultBuilder(InvertedIndex index, TextAnalyzer analyzer) {
 		this.index = index;
+		this.analyzer = analyzer;
 		queryResult =  new TreeMap<>();
 	}
 
@@ -69,7 +84,7 @@ public class QueryResultBuilder implements QueryBuilder {
 	 * @see #addResult(String, Set, boolean)
 	 */
 	public void readQueryLine(String line, boolean exact) {
-		var queries = TextStemmer.uniqueStems(line);
+		var queries = analyzer.uniqueStems(line);
 		var joined = String.join(" ", queries);
 
 		if (!queries.isEmpty() && !queryResult.containsKey(joined)) {
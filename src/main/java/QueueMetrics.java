@@ -0,0 +1,341 @@
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Execution metrics of a {@link WorkQueue}: how long tasks wait in the queue
+ * before they start, how long they take to run, how busy each worker is, and
+ * how deep the queue has been. Comparing the wait times and worker utilization
+ * shows whether a queue is short on threads (tasks wait while workers are
+ * busy) or whether more threads stopped helping (workers sit idle or tasks
+ * slow down as threads are added).
+ *
+ * Everything is recorded without locking, so the metrics may be read while the
+ * queue is running.
+ *
+ * @author Adon Anglon
+ */
+public class QueueMetrics {
+	/** The time tasks waited in the queue before a worker started them. */
+	private final Histogram waitTimes;
+
+	/** The time tasks took to run. */
+	private final Histogram runTimes;
+
+	/** The statistics of each worker, by thread name. */
+	private final Map<String, WorkerStats> workers;
+
+	/** The most tasks that have waited in the queue at once. */
+	private final AtomicInteger peakDepth;
+
+	/**
+	 * Initializes empty metrics.
+	 */
+	public QueueMetrics() {
+		this.waitTimes = new Histogram();
+		this.runTimes = new Histogram();
+		this.workers = new ConcurrentSkipListMap<>();
+		this.peakDepth = new AtomicInteger();
+	}
+
+	/**
+	 * Records how long a task waited in the queue.
+	 *
+	 * @param nanos the time from adding the task to starting it, in nanoseconds
+	 */
+	public void recordWait(long nanos) {
+		waitTimes.record(nanos);
+	}
+
+	/**
+	 * Records how long a task took to run on a worker.
+	 *
+	 * @param worker the statistics of the worker that ran the task
+	 * @param nanos the time the task took, in nanoseconds
+	 * @param failed true if the task threw an exception
+	 */
+	public void recordRun(WorkerStats worker, long nanos, boolean failed) {
+		runTimes.record(nanos);
+		worker.busy.addAndGet(nanos);
+		if(failed) {
+			worker.failed.incrementAndGet();
+		}
+		else {
+			worker.completed.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Records how many tasks are waiting in the queue.
+	 *
+	 * @param depth the number of waiting tasks
+	 */
+	public void recordDepth(int depth) {
+		peakDepth.accumulateAndGet(depth, Math::max);
+	}
+
+	/**
+	 * Returns the statistics of a worker, starting new ones if the worker has
+	 * none yet.
+	 *
+	 * @param name the name of the worker thread
+	 * @return the statistics of the worker
+	 */
+	public WorkerStats worker(String name) {
+		return workers.computeIfAbsent(name, key -> new WorkerStats());
+	}
+
+	/**
+	 * Returns the time tasks waited in the queue before a worker started them.
+	 *
+	 * @return the wait time histogram
+	 */
+	public Histogram getWaitTimes() {
+		return waitTimes;
+	}
+
+	/**
+	 * Returns the time tasks took to run.
+	 *
+	 * @return the run time histogram
+	 */
+	public Histogram getRunTimes() {
+		return runTimes;
+	}
+
+	/**
+	 * Returns the statistics of every worker that has run, by thread name.
+	 *
+	 * @return an unmodifiable view of the worker statistics
+	 */
+	public Map<String, WorkerStats> getWorkers() {
+		return Collections.unmodifiableMap(workers);
+	}
+
+	/**
+	 * Returns the most tasks that have waited in the queue at once.
+	 *
+	 * @return the peak queue depth
+	 */
+	public int getPeakDepth() {
+		return peakDepth.get();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("peak depth: ").append(peakDepth.get()).append(System.lineSeparator());
+		builder.append("wait: ").append(waitTimes).append(System.lineSeparator());
+		builder.append("run:  ").append(runTimes);
+		for(var worker : workers.entrySet()) {
+			builder.append(System.lineSeparator()).append(worker.getKey()).append(": ").append(worker.getValue());
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Formats a time in nanoseconds as milliseconds.
+	 *
+	 * @param nanos the time in nanoseconds
+	 * @return the time in milliseconds
+	 */
+	private static String millis(double nanos) {
+		return String.format("%.3fms", nanos / TimeUnit.MILLISECONDS.toNanos(1));
+	}
+
+	/**
+	 * Counts times in buckets that double in size, so a few dozen counters
+	 * cover everything from nanoseconds to hours. Percentiles are reported as
+	 * the upper bound of their bucket, so they are accurate to within a factor
+	 * of two.
+	 */
+	public static class Histogram {
+		/** The number of times in [2^i, 2^(i+1)) nanoseconds, for each i. */
+		private final AtomicLongArray buckets;
+
+		/** The number of times recorded. */
+		private final AtomicLong count;
+
+		/** The sum of the times recorded, in nanoseconds. */
+		private final AtomicLong total;
+
+		/** The longest time recorded, in nanoseconds. */
+		private final AtomicLong max;
+
+		/**
+		 * Initializes an empty histogram.
+		 */
+		public Histogram() {
+			this.buckets = new AtomicLongArray(Long.SIZE);
+			this.count = new AtomicLong();
+			this.total = new AtomicLong();
+			this.max = new AtomicLong();
+		}
+
+		/**
+		 * Records a time.
+		 *
+		 * @param nanos the time in nanoseconds
+		 */
+		public void record(long nanos) {
+			nanos = Math.max(0, nanos);
+			buckets.incrementAndGet(Long.SIZE - 1 - Long.numberOfLeadingZeros(Math.max(1, nanos)));
+			count.incrementAndGet();
+			total.addAndGet(nanos);
+			max.accumulateAndGet(nanos, Math::max);
+		}
+
+		/**
+		 * Returns the number of times recorded.
+		 *
+		 * @return the number of times
+		 */
+		public long getCount() {
+			return count.get();
+		}
+
+		/**
+		 * Returns the average time recorded.
+		 *
+		 * @return the average time in nanoseconds, or 0 if nothing was recorded
+		 */
+		public double getMean() {
+			long n = count.get();
+			return n == 0 ? 0 : (double) total.get() / n;
+		}
+
+		/**
+		 * Returns the longest time recorded.
+		 *
+		 * @return the longest time in nanoseconds
+		 */
+		public long getMax() {
+			return max.get();
+		}
+
+		/**
+		 * Returns a time at least as long as the given fraction of the recorded
+		 * times, and less than twice as long as the exact percentile.
+		 *
+		 * @param fraction the fraction of times, between 0 and 1
+		 * @return the percentile in nanoseconds, or 0 if nothing was recorded
+		 */
+		public long getPercentile(double fraction) {
+			long n = 0;
+			for(int i = 0; i < buckets.length(); i++) {
+				n += buckets.get(i);
+			}
+
+			long rank = (long) Math.ceil(fraction * n);
+			long seen = 0;
+			for(int i = 0; i < buckets.length(); i++) {
+				seen += buckets.get(i);
+				if(seen >= rank && seen > 0) {
+					long upper = i + 1 < Long.SIZE - 1 ? 1L << (i + 1) : Long.MAX_VALUE;
+					return Math.min(upper, max.get());
+				}
+			}
+			return 0;
+		}
+
+		@Override
+		public String toString() {
+			return "[count: " + count.get() + ", mean: " + millis(getMean()) + ", p50: "
+					+ millis(getPercentile(0.5)) + ", p90: " + millis(getPercentile(0.9)) + ", p99: "
+					+ millis(getPercentile(0.99)) + ", max: " + millis(max.get()) + "]";
+		}
+	}
+
+	/**
+	 * The statistics of a single worker thread.
+	 */
+	public static class WorkerStats {
+		/** The number of tasks that finished normally. */
+		private final AtomicLong completed;
+
+		/** The number of tasks that threw an exception. */
+		private final AtomicLong failed;
+
+		/** The time spent running tasks, in nanoseconds. */
+		private final AtomicLong busy;
+
+		/** The time spent waiting for tasks, in nanoseconds. */
+		private final AtomicLong idle;
+
+		/**
+		 * Initializes statistics for a worker that has not run anything yet.
+		 */
+		public WorkerStats() {
+			this.completed = new AtomicLong();
+			this.failed = new AtomicLong();
+			this.busy = new AtomicLong();
+			this.idle = new AtomicLong();
+		}
+
+		/**
+		 * Records time spent waiting for tasks.
+		 *
+		 * @param nanos the time in nanoseconds
+		 */
+		public void recordIdle(long nanos) {
+			idle.addAndGet(nanos);
+		}
+
+		/**
+		 * Returns the number of tasks that finished normally.
+		 *
+		 * @return the number of completed tasks
+		 */
+		public long getCompleted() {
+			return completed.get();
+		}
+
+		/**
+		 * Returns the number of tasks that threw an exception.
+		 *
+		 * @return the number of failed tasks
+		 */
+		public long getFailed() {
+			return failed.get();
+		}
+
+		/**
+		 * Returns the time spent running tasks.
+		 *
+		 * @return the busy time in nanoseconds
+		 */
+		public long getBusy() {
+			return busy.get();
+		}
+
+		/**
+		 * Returns the time spent waiting for tasks.
+		 *
+		 * @return the idle time in nanoseconds
+		 */
+		public long getIdle() {
+			return idle.get();
+		}
+
+		/**
+		 * Returns the share of time spent running tasks rather than waiting.
+		 *
+		 * @return the utilization between 0 and 1, or 0 if nothing was recorded
+		 */
+		public double getUtilization() {
+			long busy = this.busy.get();
+			long total = busy + idle.get();
+			return total == 0 ? 0 : (double) busy / total;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("[completed: %d, failed: %d, busy: %s, idle: %s, utilization: %.1f%%]",
+					completed.get(), failed.get(), millis(busy.get()), millis(idle.get()), getUtilization() * 100);
+		}
+	}
+}
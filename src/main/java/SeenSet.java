@@ -0,0 +1,48 @@
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers which keys (such as crawled links) have been seen. Implementations
+ * must be thread safe, and may trade exactness for memory as long as a key that
+ * was added is never reported as new again.
+ *
+ * @author Adon Anglon
+ */
+public interface SeenSet {
+	/**
+	 * Adds the key if it was not seen before.
+	 *
+	 * @param key the key to add
+	 * @return true if the key was not seen before, false if it was (or, for a
+	 *   probabilistic set, might have been)
+	 */
+	boolean add(String key);
+
+	/**
+	 * Returns the number of keys added.
+	 *
+	 * @return the number of keys
+	 */
+	long size();
+
+	/**
+	 * Returns an exact set backed by a concurrent hash set, which holds every
+	 * key in memory.
+	 *
+	 * @return a new empty exact set
+	 */
+	static SeenSet exact() {
+		Set<String> keys = ConcurrentHashMap.newKeySet();
+		return new SeenSet() {
+			@Override
+			public boolean add(String key) {
+				return keys.add(key);
+			}
+
+			@Override
+			public long size() {
+				return keys.size();
+			}
+		};
+	}
+}
@@ -0,0 +1,359 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * This class populates an inverted index while keeping only a bounded number of
+ * postings in memory. Files are read into a buffer index, and once the buffer
+ * grows past the memory budget it is written to a temporary file as a sorted
+ * run (in the format of {@link InvertedIndex#write(DataOutputStream)}) and
+ * cleared. When the build is done the runs are either read back into the
+ * index one at a time, or combined with an external k-way merge and streamed
+ * straight to a JSON file without ever loading the whole index.
+ *
+ * A file is never split between runs, so the budget may be exceeded by the
+ * postings of a single file.
+ *
+ * @author Adon Anglon
+ */
+public class SpillingIndexBuilder implements IndexBuilder {
+	/** The default memory budget for buffered postings. */
+	public static final long DEFAULT_BUDGET = 256L * 1024 * 1024;
+
+	/**
+	 * The estimated heap used by a single buffered position: the tree node and
+	 * boxed integer, plus a share of the word and location maps.
+	 */
+	private static final int BYTES_PER_POSITION = 64;
+
+	/**
+	 * This InvertedIndex will be a reference for the index passed into the function.
+	 */
+	private final InvertedIndex invertedIndex;
+
+	/** The analyzer used to turn each line of text into index terms. */
+	private final TextAnalyzer analyzer;
+
+	/** The number of positions buffered before a run is written. */
+	private final long limit;
+
+	/**
+	 * The JSON file the merged index is streamed to, or {@code null} to read the
+	 * merged index into the index.
+	 */
+	private final Path output;
+
+	/** The index files are read into until it is spilled. */
+	private InvertedIndex buffer;
+
+	/** The number of positions in the buffer. */
+	private long buffered;
+
+	/** The runs written during the current build. */
+	private final List<Path> runs;
+
+	/**
+	 * Initializes the builder to read the merged runs into the index.
+	 *
+	 * @param index invertedIndex to be entered
+	 * @param analyzer analyzer used to turn text into index terms
+	 * @param budget the estimated bytes of postings to buffer before spilling
+	 */
+	public SpillingIndexBuilder(InvertedIndex index, TextAnalyzer analyzer, long budget) {
+		this(index, analyzer, budget, null);
+	}
+
+	/**
+	 * Initializes the builder. If an output file is given, only the word counts
+	 * are added to the index and the merged words are written to the output file
+	 * in the same JSON format as {@link InvertedIndex#indexToJson(Path)}.
+	 *
+	 * @param index invertedIndex to be entered
+	 * @param analyzer analyzer used to turn text into index terms
+	 * @param budget the estimated bytes of postings to buffer before spilling
+	 * @param output the JSON file the merged index is streamed to, or
+	 *   {@code null} to read the merged index into the index
+	 */
+	public SpillingIndexBuilder(InvertedIndex index, TextAnalyzer analyzer, long budget, Path output) {
+		this.invertedIndex = index;
+		this.analyzer = analyzer;
+		this.limit = Math.max(1, budget / BYTES_PER_POSITION);
+		this.output = output;
+		this.buffer = new InvertedIndex();
+		this.runs = new ArrayList<>();
+	}
+
+	@Override
+	public void build(Path mainPath) throws IOException {
+		try {
+			if(Files.isDirectory(mainPath)) {
+				readFiles(mainPath);
+			}
+			else {
+				readFile(mainPath);
+			}
+			finish();
+		}
+		finally {
+			cleanUp();
+		}
+	}
+
+	@Override
+	public void build(Collection<Path> paths) throws IOException {
+		try {
+			for(Path path : paths) {
+				readFile(path);
+			}
+			finish();
+		}
+		finally {
+			cleanUp();
+		}
+	}
+
+	/**
+	 * Reads the file into the buffer, spilling the buffer to a new run once it
+	 * is over the budget.
+	 */
+	@Override
+	public void readFile(Path path) throws IOException {
+		try(BufferedReader br = IndexBuilder.newBufferedReader(path)) {
+			buffered += InvertedIndexBuilder.readLines(br, path.toString(), buffer, analyzer);
+		}
+
+		if(buffered >= limit) {
+			spill();
+		}
+	}
+
+	/**
+	 * Writes the buffer to a new run and clears it. The word counts are added
+	 * to the index right away since they are small.
+	 *
+	 * @throws IOException if unable to write the run
+	 */
+	private void spill() throws IOException {
+		Path run = Files.createTempFile("index-run", ".bin");
+		runs.add(run);
+
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run)))) {
+			buffer.write(out);
+		}
+
+		log.debug("Spilled run {} with {} positions.", runs.size(), buffered);
+		invertedIndex.addCounts(buffer);
+		buffer = new InvertedIndex();
+		buffered = 0;
+	}
+
+	/**
+	 * Moves everything read during the build into the index or output file.
+	 * If nothing was spilled and the index is kept in memory, the buffer is
+	 * added directly.
+	 *
+	 * @throws IOException if unable to read the runs or write the output
+	 */
+	private void finish() throws IOException {
+		if(output == null && runs.isEmpty()) {
+			invertedIndex.addAll(buffer);
+			return;
+		}
+
+		if(buffered > 0 || runs.isEmpty()) {
+			spill();
+		}
+
+		if(output == null) {
+			//Only one run is held in memory at a time besides the index itself
+			for(Path run : runs) {
+				try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run)))) {
+					invertedIndex.read(in);
+				}
+			}
+		}
+		else {
+			mergeRuns();
+		}
+	}
+
+	/**
+	 * Merges the runs word by word and streams the result to the output file.
+	 * Only the current word of each run is held in memory.
+	 *
+	 * @throws IOException if unable to read the runs or write the output
+	 */
+	private void mergeRuns() throws IOException {
+		PriorityQueue<Run> queue = new PriorityQueue<>();
+		try(BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+			for(Path path : runs) {
+				Run run = new Run(path);
+				if(run.advance()) {
+					queue.add(run);
+				}
+				else {
+					run.close();
+				}
+			}
+
+			writer.write("{");
+			boolean first = true;
+
+			while(!queue.isEmpty()) {
+				Run run = queue.poll();
+				String word = run.word;
+				TreeMap<String, TreeSet<Integer>> locations = run.locations;
+				next(queue, run);
+
+				//Pull the same word from every other run
+				while(!queue.isEmpty() && queue.peek().word.equals(word)) {
+					Run other = queue.poll();
+					for(var locationEntry : other.locations.entrySet()) {
+						locations.merge(locationEntry.getKey(), locationEntry.getValue(), (a, b) -> {
+							a.addAll(b);
+							return a;
+						});
+					}
+					next(queue, other);
+				}
+
+				if(!first) {
+					writer.write(",");
+				}
+				first = false;
+				JsonWriter.writeKVObjectEntry(Map.entry(word, locations), writer, 1);
+			}
+
+			JsonWriter.nextLine(writer, 0);
+			writer.write("}");
+		}
+		finally {
+			for(Run run : queue) {
+				run.close();
+			}
+		}
+	}
+
+	/**
+	 * Advances the run to its next word, putting it back in the queue if it has
+	 * one and closing it otherwise.
+	 *
+	 * @param queue the queue of runs ordered by their current word
+	 * @param run the run to advance
+	 * @throws IOException if unable to read the run
+	 */
+	private static void next(PriorityQueue<Run> queue, Run run) throws IOException {
+		if(run.advance()) {
+			queue.add(run);
+		}
+		else {
+			run.close();
+		}
+	}
+
+	/**
+	 * Deletes the runs and clears the buffer, whether or not the build finished.
+	 */
+	private void cleanUp() {
+		for(Path run : runs) {
+			try {
+				Files.deleteIfExists(run);
+			}
+			catch(IOException e) {
+				log.debug("An IO error was thrown and needs to be handled.");
+			}
+		}
+		runs.clear();
+		buffer = new InvertedIndex();
+		buffered = 0;
+	}
+
+	/**
+	 * Reads the words of a run one at a time, in sorted order.
+	 */
+	private static class Run implements Comparable<Run>, Closeable {
+		/** The stream the run is read from. */
+		private final DataInputStream in;
+
+		/** The locations of the run, by their position in the run's table. */
+		private final String[] table;
+
+		/** The number of words left to read. */
+		private int remaining;
+
+		/** The current word. */
+		private String word;
+
+		/** The locations and positions of the current word. */
+		private TreeMap<String, TreeSet<Integer>> locations;
+
+		/**
+		 * Opens the run and reads its location table. The word counts that
+		 * follow each location are skipped since they were already added.
+		 *
+		 * @param path the run to read
+		 * @throws IOException if unable to read the run
+		 */
+		public Run(Path path) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)));
+			this.table = new String[in.readInt()];
+			for(int i = 0; i < table.length; i++) {
+				table[i] = in.readUTF();
+				in.readInt();
+			}
+			this.remaining = in.readInt();
+		}
+
+		/**
+		 * Reads the next word and its locations.
+		 *
+		 * @return true if there was another word
+		 * @throws IOException if unable to read the run
+		 */
+		public boolean advance() throws IOException {
+			if(remaining == 0) {
+				return false;
+			}
+			remaining--;
+
+			word = in.readUTF();
+			locations = new TreeMap<>();
+			int locationCount = in.readInt();
+			for(int j = 0; j < locationCount; j++) {
+				TreeSet<Integer> positions = new TreeSet<>();
+				locations.put(table[in.readInt()], positions);
+
+				int positionCount = in.readInt();
+				for(int k = 0; k < positionCount; k++) {
+					positions.add(in.readInt());
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public int compareTo(Run o) {
+			return this.word.compareTo(o.word);
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,193 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A work queue backed by a {@link ForkJoinPool}, which gives every worker its
+ * own deque of tasks. Tasks executed from a worker thread go on that worker's
+ * deque without any shared lock, and idle workers steal from the others
+ * instead of all waiting on one monitor. This keeps the same
+ * execute/finish/join/shutdown contract as {@link WorkQueue}, and is best
+ * suited to many tiny tasks where handing work to a thread costs more than
+ * running it. There is no shared order to rearrange, so task priorities are
+ * ignored.
+ *
+ * @author Adon Anglon
+ */
+public class StealingWorkQueue extends WorkQueue {
+	/** Used to count how many tasks are remaining. */
+	private final AtomicInteger pending;
+
+	/** The pool that runs the tasks. */
+	private final ForkJoinPool pool;
+
+	/** The number of worker threads. */
+	private final int threads;
+
+	/** Used to signal that tasks not yet started should be skipped. */
+	private volatile boolean shutdown;
+
+	/** Logger used for this class. */
+	private static final Logger log = LogManager.getLogger();
+
+	/**
+	 * Starts a work queue with the default number of threads.
+	 *
+	 * @see #StealingWorkQueue(int)
+	 */
+	public StealingWorkQueue() {
+		this(DEFAULT);
+	}
+
+	/**
+	 * Starts a work queue with the specified number of threads.
+	 *
+	 * @param threads number of worker threads; should be greater than 1
+	 */
+	public StealingWorkQueue(int threads) {
+		super(threads, false);
+		this.threads = threads;
+		this.pending = new AtomicInteger();
+		this.shutdown = false;
+
+		// tasks are never joined, so each worker takes its own tasks in FIFO order
+		this.pool = new ForkJoinPool(threads, pool -> {
+			ForkJoinWorkerThread worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			worker.setName("Worker" + worker.getName());
+			return worker;
+		}, null, true);
+
+		log.debug("Work stealing queue initialized with {} worker threads.", threads);
+	}
+
+	/**
+	 * Adds a work (or task) request to the queue and increments the amount of
+	 * pending tasks that must be completed. Tasks added from a worker thread go
+	 * on that worker's own deque. The priority is ignored.
+	 *
+	 * @param task work request (in the form of a {@link Runnable} object)
+	 * @param priority unused
+	 */
+	@Override
+	public void execute(Runnable task, Priority priority) {
+		if(shutdown) {
+			log.debug("Work queue ignoring task after shutdown.");
+			return;
+		}
+
+		pending.incrementAndGet();
+		long enqueued = System.nanoTime();
+		try {
+			pool.execute(() -> {
+				long start = System.nanoTime();
+				boolean failed = false;
+				getMetrics().recordWait(start - enqueued);
+
+				try {
+					if(!shutdown) {
+						task.run();
+					}
+				}
+				catch (RuntimeException e) {
+					// catch runtime exceptions to avoid losing the pending count
+					failed = true;
+					log.error("Warning: Worker thread {} encountered an exception while running.",
+							Thread.currentThread().getName());
+					log.catching(Level.DEBUG, e);
+				}
+				finally {
+					decrementPending();
+				}
+
+				// idle time is not recorded, since the pool parks its own workers
+				getMetrics().recordRun(getMetrics().worker(Thread.currentThread().getName()),
+						System.nanoTime() - start, failed);
+			});
+		}
+		catch(RejectedExecutionException e) {
+			// the pool shut down after the check above, so the task never runs
+			decrementPending();
+			throw e;
+		}
+	}
+
+	/**
+	 * Waits until all pending work is completed.
+	 */
+	@Override
+	public synchronized void finish() {
+		log.debug("Waiting for work...");
+
+		try {
+			while (pending.get() > 0) {
+				this.wait();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		log.debug("Work finished.");
+	}
+
+	/**
+	 * Decrements the pending count without locking, and only locks to wake up
+	 * any threads waiting for work to be completed.
+	 */
+	private void decrementPending() {
+		if (pending.decrementAndGet() == 0) {
+			synchronized (this) {
+				this.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Asks the queue to shutdown. Any unprocessed work (or tasks) will not be
+	 * finished, but tasks in-progress will not be interrupted.
+	 */
+	@Override
+	public void shutdown() {
+		shutdown = true;
+
+		log.debug("Work queue triggering shutdown...");
+		pool.shutdown();
+	}
+
+	/**
+	 * Waits for all the work to be finished and the worker threads to terminate.
+	 * The work queue cannot be reused after this call completes.
+	 */
+	@Override
+	public void join() {
+		try {
+			finish();
+			shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+			log.debug("All worker threads terminated.");
+			log.debug("Work queue metrics:{}{}", System.lineSeparator(), getMetrics());
+		}
+		catch (InterruptedException e) {
+			log.error("Warning: Work queue interrupted while joining.");
+			log.catching(Level.DEBUG, e);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public int size() {
+		return threads;
+	}
+
+	@Override
+	public int remaining() {
+		return pending.get();
+	}
+}
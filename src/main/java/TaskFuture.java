@@ -0,0 +1,103 @@
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The result of a task submitted to a {@link WorkQueue}. Results can be
+ * composed like any other {@link CompletableFuture}. Unlike a plain
+ * CompletableFuture, cancelling this future (or letting it time out) also
+ * interrupts the worker running the task, so long running work that checks
+ * for interrupts stops early instead of only having its result ignored.
+ *
+ * A task cancelled before a worker takes it is skipped entirely.
+ *
+ * @param <T> the type of result
+ *
+ * @author Adon Anglon
+ */
+public class TaskFuture<T> extends CompletableFuture<T> implements Runnable {
+	/** The task that computes the result. */
+	private final Callable<T> task;
+
+	/** The thread running the task, or {@code null} if it is not running. */
+	private Thread runner;
+
+	/**
+	 * Initializes the future of a task that has not been run yet.
+	 *
+	 * @param task the task that computes the result
+	 *
+	 * @see WorkQueue#submit(Callable)
+	 */
+	public TaskFuture(Callable<T> task) {
+		this.task = task;
+		this.runner = null;
+	}
+
+	/**
+	 * Runs the task on the calling thread and completes this future with its
+	 * result or exception, unless this future is already done.
+	 */
+	@Override
+	public void run() {
+		synchronized(this) {
+			if(isDone()) {
+				return;
+			}
+			runner = Thread.currentThread();
+		}
+
+		try {
+			complete(task.call());
+		}
+		catch(Exception e) {
+			completeExceptionally(e);
+		}
+		finally {
+			synchronized(this) {
+				runner = null;
+				// clears an interrupt meant for this task so it never reaches the next one
+				Thread.interrupted();
+			}
+		}
+	}
+
+	/**
+	 * Cancels the task, interrupting the thread running it if allowed.
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		boolean cancelled = super.cancel(mayInterruptIfRunning);
+		if(cancelled && mayInterruptIfRunning) {
+			interrupt();
+		}
+		return cancelled;
+	}
+
+	/**
+	 * Fails this future with a {@link TimeoutException} and interrupts the task
+	 * if it is not done within the timeout.
+	 *
+	 * @param timeout how long the task may take, counted from now
+	 * @return this future
+	 */
+	public TaskFuture<T> cancelAfter(Duration timeout) {
+		CompletableFuture.delayedExecutor(timeout.toNanos(), TimeUnit.NANOSECONDS).execute(() -> {
+			if(completeExceptionally(new TimeoutException("Task did not finish within " + timeout + "."))) {
+				interrupt();
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * Interrupts the thread running the task, if it is still running.
+	 */
+	private synchronized void interrupt() {
+		if(runner != null) {
+			runner.interrupt();
+		}
+	}
+}
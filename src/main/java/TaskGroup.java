@@ -0,0 +1,184 @@
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A group of tasks run on a shared {@link WorkQueue} whose completion can be
+ * waited on without waiting for the other tasks in the queue. This lets
+ * several builders share one queue while each waits only for its own work.
+ *
+ * The pending count is updated without locking, and a lock is only taken to
+ * wake up waiting threads once the count reaches zero.
+ *
+ * @author Adon Anglon
+ */
+public class TaskGroup {
+	/** The queue the tasks run on. */
+	private final WorkQueue queue;
+
+	/** The order the tasks of this group are taken from the queue in. */
+	private final WorkQueue.Priority priority;
+
+	/** Used to count how many tasks of this group are remaining. */
+	private final AtomicInteger pending;
+
+	/** Logger used for this class. */
+	private static final Logger log = LogManager.getLogger();
+
+	/**
+	 * Initializes an empty group of tasks on the queue.
+	 *
+	 * @param queue the queue the tasks run on
+	 *
+	 * @see WorkQueue#newGroup()
+	 */
+	public TaskGroup(WorkQueue queue) {
+		this(queue, WorkQueue.Priority.NORMAL);
+	}
+
+	/**
+	 * Initializes an empty group of tasks on the queue with the given priority.
+	 *
+	 * @param queue the queue the tasks run on
+	 * @param priority the order the tasks are taken from the queue in
+	 *
+	 * @see WorkQueue#newGroup(WorkQueue.Priority)
+	 */
+	public TaskGroup(WorkQueue queue, WorkQueue.Priority priority) {
+		this.queue = queue;
+		this.priority = priority;
+		this.pending = new AtomicInteger();
+	}
+
+	/**
+	 * Adds a task of this group to the queue.
+	 *
+	 * @param task work request (in the form of a {@link Runnable} object)
+	 * @throws RejectedExecutionException if the queue is full and rejects tasks
+	 *
+	 * @see WorkQueue#execute(Runnable, WorkQueue.Priority)
+	 */
+	public void execute(Runnable task) {
+		pending.incrementAndGet();
+		try {
+			queue.execute(() -> {
+				try {
+					task.run();
+				}
+				finally {
+					decrementPending();
+				}
+			}, priority);
+		}
+		catch(RejectedExecutionException e) {
+			decrementPending();
+			throw e;
+		}
+	}
+
+	/**
+	 * Adds a task of this group that computes a result to the queue.
+	 *
+	 * @param <T> the type of result
+	 * @param task the task that computes the result
+	 * @return the future result, which interrupts the task if cancelled
+	 * @throws RejectedExecutionException if the queue is full and rejects tasks
+	 */
+	public <T> TaskFuture<T> submit(Callable<T> task) {
+		TaskFuture<T> future = new TaskFuture<>(task);
+		execute(future);
+		return future;
+	}
+
+	/**
+	 * Adds a task of this group that computes a result to the queue, failing
+	 * the result with a {@link TimeoutException} and interrupting the task if it
+	 * takes too long.
+	 *
+	 * @param <T> the type of result
+	 * @param task the task that computes the result
+	 * @param timeout how long the task may take, including time in the queue
+	 * @return the future result, which interrupts the task if cancelled
+	 * @throws RejectedExecutionException if the queue is full and rejects tasks
+	 *
+	 * @see TaskFuture#cancelAfter(Duration)
+	 */
+	public <T> TaskFuture<T> submit(Callable<T> task, Duration timeout) {
+		return submit(task).cancelAfter(timeout);
+	}
+
+	/**
+	 * Counts work completed outside the queue, such as an asynchronous request,
+	 * as a task of this group, so {@link #finish()} also waits for it. Any tasks
+	 * the work adds to a group before the future completes are waited on too.
+	 *
+	 * @param future the future completed when the work is done
+	 */
+	public void track(CompletableFuture<?> future) {
+		pending.incrementAndGet();
+		future.whenComplete((result, error) -> decrementPending());
+	}
+
+	/**
+	 * Waits until every task of this group is completed, including any tasks
+	 * added by those tasks. Should not be called from a worker of the same
+	 * queue, since that worker would wait on itself.
+	 */
+	public synchronized void finish() {
+		try {
+			while(pending.get() > 0) {
+				this.wait();
+			}
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		log.debug("Task group finished.");
+	}
+
+	/**
+	 * Returns the amount of remaining tasks of this group.
+	 *
+	 * @return number of remaining tasks in this group
+	 */
+	public int remaining() {
+		return pending.get();
+	}
+
+	/**
+	 * Returns the order the tasks of this group are taken from the queue in.
+	 *
+	 * @return the priority of this group
+	 */
+	public WorkQueue.Priority getPriority() {
+		return priority;
+	}
+
+	/**
+	 * Returns the queue the tasks of this group run on.
+	 *
+	 * @return the work queue
+	 */
+	public WorkQueue getQueue() {
+		return queue;
+	}
+
+	/**
+	 * Decrements the pending count, and wakes up any threads waiting for this
+	 * group once no tasks are left.
+	 */
+	private void decrementPending() {
+		if(pending.decrementAndGet() == 0) {
+			synchronized(this) {
+				this.notifyAll();
+			}
+		}
+	}
+}
@@ -0,0 +1,180 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import opennlp.tools.stemmer.Stemmer;
+import opennlp.tools.stemmer.snowball.SnowballStemmer;
+
+/**
+ * Represents the chain of steps used to turn a line of text into index terms:
+ * tokenizing and lowercasing (via {@link TextParser}), an optional stop-word
+ * filter, and an optional stemmer. The same analyzer should be used by the
+ * index builders and the query builders so that queries and the index agree on
+ * their terms.
+ *
+ * Analyzers are immutable and may be shared between threads. Stemmers are not
+ * thread safe, so each thread should get its own through {@link #newStemmer()}.
+ *
+ * @author Adon Anglon
+ */
+public class TextAnalyzer {
+	/** A small list of very common English words that are not worth indexing. */
+	public static final Set<String> ENGLISH_STOP_WORDS = Set.of(
+			"a", "an", "and", "are", "as", "at", "be", "but", "by", "for", "if", "in",
+			"into", "is", "it", "no", "not", "of", "on", "or", "such", "that", "the",
+			"their", "then", "there", "these", "they", "this", "to", "was", "will",
+			"with");
+
+	/** The cleaned (lowercase, unstemmed) words dropped before stemming. */
+	private final Set<String> stopWords;
+
+	/** The stemmer algorithm to use, or {@code null} if words are not stemmed. */
+	private final SnowballStemmer.ALGORITHM algorithm;
+
+	/**
+	 * Initializes the default analyzer, which keeps every word and stems with the
+	 * English stemmer.
+	 *
+	 * @see TextStemmer#ENGLISH
+	 */
+	public TextAnalyzer() {
+		this(Collections.emptySet(), TextStemmer.ENGLISH);
+	}
+
+	/**
+	 * Initializes an analyzer with the provided stop words and stemmer algorithm.
+	 *
+	 * @param stopWords cleaned words to drop before stemming
+	 * @param algorithm the stemmer algorithm to use, or {@code null} to keep the
+	 *   cleaned words as they are
+	 */
+	public TextAnalyzer(Set<String> stopWords, SnowballStemmer.ALGORITHM algorithm) {
+		this.stopWords = Set.copyOf(stopWords);
+		this.algorithm = algorithm;
+	}
+
+	/**
+	 * Creates a new stemmer for this analyzer. If this analyzer does not stem,
+	 * the returned stemmer leaves words unchanged.
+	 *
+	 * @return a stemmer that is only safe to use from a single thread
+	 */
+	public Stemmer newStemmer() {
+		return algorithm == null
+				? word -> word
+				: new SnowballStemmer(algorithm);
+	}
+
+	/**
+	 * Determines if the cleaned word is dropped by this analyzer.
+	 *
+	 * @param word cleaned word to check
+	 * @return true if the word is a stop word
+	 */
+	public boolean isStopWord(String word) {
+		return stopWords.contains(word);
+	}
+
+	/**
+	 * Parses the line, drops any stop words, stems the remaining words and adds
+	 * them to the output collection in parsed order.
+	 *
+	 * @param line line of text to be analyzed
+	 * @param stemmer stemmer from {@link #newStemmer()} owned by this thread
+	 * @param output collection each term will be added to
+	 */
+	public void analyzeLine(String line, Stemmer stemmer, Collection<String> output) {
+		for(String word: TextParser.parse(line)) {
+			if(!isStopWord(word)) {
+				output.add(stemmer.stem(word).toString());
+			}
+		}
+	}
+
+	/**
+	 * Analyzes the line into a list of terms in parsed order.
+	 *
+	 * @param line line of text to be analyzed
+	 * @return list of terms in parsed order
+	 *
+	 * @see #analyzeLine(String, Stemmer, Collection)
+	 */
+	public List<String> listStems(String line) {
+		List<String> output = new ArrayList<>();
+		analyzeLine(line, newStemmer(), output);
+		return output;
+	}
+
+	/**
+	 * Analyzes the line into a sorted set of unique terms.
+	 *
+	 * @param line line of text to be analyzed
+	 * @return sorted set of unique terms
+	 *
+	 * @see #analyzeLine(String, Stemmer, Collection)
+	 */
+	public Set<String> uniqueStems(String line) {
+		Set<String> output = new TreeSet<>();
+		analyzeLine(line, newStemmer(), output);
+		return output;
+	}
+
+	/**
+	 * Reads a stop-word file with one or more words per line. Words are cleaned
+	 * the same way as the text they are matched against.
+	 *
+	 * @param path stop-word file to be read
+	 * @return set of cleaned stop words
+	 * @throws IOException file is invalid or can not be found
+	 *
+	 * @see TextParser#parse(String)
+	 */
+	public static Set<String> readStopWords(Path path) throws IOException {
+		Set<String> output = new TreeSet<>();
+		try(BufferedReader br = Files.newBufferedReader(path)) {
+			String line;
+			while((line = br.readLine()) != null) {
+				Collections.addAll(output, TextParser.parse(line));
+			}
+		}
+		return output;
+	}
+
+	/**
+	 * Looks up a stemmer algorithm by name, ignoring case. The name "none"
+	 * disables stemming.
+	 *
+	 * @param name name of the stemmer algorithm
+	 * @return the matching algorithm, or {@code null} for "none"
+	 * @throws IllegalArgumentException if no algorithm has that name
+	 */
+	public static SnowballStemmer.ALGORITHM getAlgorithm(String name) {
+		return name.equalsIgnoreCase("none")
+				? null
+				: SnowballStemmer.ALGORITHM.valueOf(name.toUpperCase());
+	}
+
+	/**
+	 * Returns a short string describing which terms this analyzer produces, so
+	 * an index saved with one analyzer is not reused with another. Unlike
+	 * {@link #hashCode()} this is stable between runs.
+	 *
+	 * @return the stemmer name followed by a hash of the sorted stop words
+	 */
+	public String getSignature() {
+		String words = String.join(" ", new TreeSet<>(stopWords));
+		return (algorithm == null ? "none" : algorithm.name()) + ":" + Integer.toHexString(words.hashCode());
+	}
+
+	@Override
+	public String toString() {
+		return "[stemmer: " + algorithm + ", stop words: " + stopWords.size() + "]";
+	}
+}
@@ -1,9 +1,24 @@
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -27,30 +42,325 @@ public class ThreadSafeIndexBuilder implements IndexBuilder {
 	 */
 	private final WorkQueue queue;
 
+	/** The tasks of this builder, which may share the queue with other work. */
+	private final TaskGroup tasks;
+
+	/** The analyzer used to turn each line of text into index terms. */
+	private final TextAnalyzer analyzer;
+
+	/** Files larger than this many bytes are split into chunks read in parallel. */
+	private final long chunkSize;
+
+	/** The default chunk size in bytes when not specified. */
+	public static final long DEFAULT_CHUNK_SIZE = 64L * 1024 * 1024;
+
+	/**
+	 * If true, each worker thread adds to its own local index and the local
+	 * indexes are merged into the shared index once at the end of the build.
+	 */
+	private final boolean local;
+
+	/** The local index of each worker thread during a build in local mode. */
+	private final Map<Thread, InvertedIndex> locals;
+
+	/**
+	 * Skips files identical to one already read, or {@code null} to read every
+	 * file. Files split into chunks are always read.
+	 */
+	private final DuplicateFilter filter;
+
+	/** The files the current build was unable to read. */
+	private final Set<Path> unread;
+
 	/**
 	 * Passes an invertedIndex into the class to be altered.
 	 *
 	 * @param invertedIndex invertedIndex to be entered
 	 */
 	public ThreadSafeIndexBuilder(ThreadSafeInvertedIndex index, WorkQueue queue) {
+		this(index, queue, new TextAnalyzer());
+	}
+
+	/**
+	 * Passes an invertedIndex into the class to be altered along with the
+	 * analyzer used to read files.
+	 *
+	 * @param index invertedIndex to be entered
+	 * @param queue work queue the files are read on
+	 * @param analyzer analyzer used to turn text into index terms
+	 */
+	public ThreadSafeIndexBuilder(ThreadSafeInvertedIndex index, WorkQueue queue, TextAnalyzer analyzer) {
+		this(index, queue, analyzer, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Passes an invertedIndex into the class to be altered along with the
+	 * analyzer and the size above which a single file is read in parallel.
+	 *
+	 * @param index invertedIndex to be entered
+	 * @param queue work queue the files are read on
+	 * @param analyzer analyzer used to turn text into index terms
+	 * @param chunkSize files larger than this many bytes are split into chunks
+	 */
+	public ThreadSafeIndexBuilder(ThreadSafeInvertedIndex index, WorkQueue queue, TextAnalyzer analyzer,
+			long chunkSize) {
+		this(index, queue, analyzer, chunkSize, false);
+	}
+
+	/**
+	 * Passes an invertedIndex into the class to be altered along with the
+	 * analyzer, the size above which a single file is read in parallel, and
+	 * whether workers build local indexes that are merged at the end.
+	 *
+	 * @param index invertedIndex to be entered
+	 * @param queue work queue the files are read on
+	 * @param analyzer analyzer used to turn text into index terms
+	 * @param chunkSize files larger than this many bytes are split into chunks
+	 * @param local if true, each worker adds to its own index until the end of
+	 *   the build instead of merging into the shared index after every file
+	 */
+	public ThreadSafeIndexBuilder(ThreadSafeInvertedIndex index, WorkQueue queue, TextAnalyzer analyzer,
+			long chunkSize, boolean local) {
+		this(index, queue, analyzer, chunkSize, local, null);
+	}
+
+	/**
+	 * Passes an invertedIndex into the class to be altered along with the
+	 * analyzer, the chunk size, whether workers build local indexes, and the
+	 * filter used to skip identical files.
+	 *
+	 * @param index invertedIndex to be entered
+	 * @param queue work queue the files are read on
+	 * @param analyzer analyzer used to turn text into index terms
+	 * @param chunkSize files larger than this many bytes are split into chunks
+	 * @param local if true, each worker adds to its own index until the end of
+	 *   the build instead of merging into the shared index after every file
+	 * @param filter filter that skips files identical to one already read, or
+	 *   {@code null} to read every file
+	 */
+	public ThreadSafeIndexBuilder(ThreadSafeInvertedIndex index, WorkQueue queue, TextAnalyzer analyzer,
+			long chunkSize, boolean local, DuplicateFilter filter) {
 		this.invertedIndex = index;
 		this.queue = queue;
+		this.tasks = queue.newGroup();
+		this.analyzer = analyzer;
+		this.chunkSize = chunkSize;
+		this.local = local;
+		this.locals = new ConcurrentHashMap<>();
+		this.filter = filter;
+		this.unread = ConcurrentHashMap.newKeySet();
 	}
 
 	@Override
 	public void readFile(Path path) throws IOException {
-		queue.execute(new Task(path));
+		//Compressed files can only be read from the start
+		long size = Files.size(path);
+		if(size > chunkSize && !IndexBuilder.isCompressed(path)) {
+			readChunks(path, size);
+		}
+		else {
+			tasks.execute(new Task(path));
+		}
+	}
+
+	/**
+	 * Splits a large file into chunks that end on line boundaries and adds a
+	 * task for each chunk to the work queue.
+	 *
+	 * @param path file path to be read
+	 * @param size size of the file in bytes
+	 * @throws IOException file is invalid or can not be found
+	 *
+	 * @see #findLineBoundaries(Path, long)
+	 */
+	private void readChunks(Path path, long size) throws IOException {
+		List<Long> bounds = findLineBoundaries(path, size);
+		for(int i = 0; i < bounds.size() - 1; i++) {
+			//A single line too long to fit in one buffer, read the file in one pass
+			if(bounds.get(i + 1) - bounds.get(i) > Integer.MAX_VALUE - 8) {
+				tasks.execute(new Task(path));
+				return;
+			}
+		}
+
+		ChunkedFile file = new ChunkedFile(path.toString(), bounds.size() - 1);
+		log.debug("Splitting {} into {} chunks.", path, bounds.size() - 1);
+
+		for(int i = 0; i < bounds.size() - 1; i++) {
+			tasks.execute(new ChunkTask(path, file, i, bounds.get(i), bounds.get(i + 1)));
+		}
+	}
+
+	/**
+	 * Finds the byte offsets that split the file into chunks of roughly the chunk
+	 * size. Each offset (other than the first and last) is just past a newline,
+	 * so no line is split between two chunks. Newline bytes never appear inside
+	 * multi-byte UTF-8 characters, so this is safe for UTF-8 text.
+	 *
+	 * @param path file path to be split
+	 * @param size size of the file in bytes
+	 * @return sorted offsets starting with 0 and ending with the file size
+	 * @throws IOException file is invalid or can not be found
+	 */
+	private List<Long> findLineBoundaries(Path path, long size) throws IOException {
+		List<Long> bounds = new ArrayList<>();
+		bounds.add(0L);
+
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(8192);
+			long next = chunkSize;
+
+			while(next < size) {
+				long boundary = size;
+				long position = next;
+				channel.position(position);
+				buffer.clear();
+
+				search:
+				while(channel.read(buffer) > 0) {
+					buffer.flip();
+					while(buffer.hasRemaining()) {
+						position++;
+						if(buffer.get() == '\n') {
+							boundary = position;
+							break search;
+						}
+					}
+					buffer.clear();
+				}
+
+				if(boundary >= size) {
+					break;
+				}
+				bounds.add(boundary);
+				next = boundary + chunkSize;
+			}
+		}
+
+		bounds.add(size);
+		return bounds;
 	}
 
 	@Override
 	public void build(Path mainPath) throws IOException {
+		unread.clear();
 		if(Files.isDirectory(mainPath)) {
 			readFiles(mainPath);
 		}
 		else {
 			readFile(mainPath);
 		}
-		queue.finish();
+		tasks.finish();
+
+		if(local) {
+			mergeLocals();
+		}
+		if(filter != null) {
+			filter.apply(invertedIndex);
+		}
+	}
+
+	@Override
+	public void build(Collection<Path> paths) throws IOException {
+		unread.clear();
+		for(Path path : paths) {
+			readFile(path);
+		}
+		tasks.finish();
+
+		if(local) {
+			mergeLocals();
+		}
+		if(filter != null) {
+			filter.apply(invertedIndex);
+		}
+	}
+
+	@Override
+	public Collection<Path> getUnread() {
+		return Collections.unmodifiableSet(unread);
+	}
+
+	/**
+	 * Returns the index the current thread should add to. In local mode this is
+	 * the thread's own local index, created the first time it is needed.
+	 *
+	 * @return the index to add to, which is only thread safe if it is the
+	 *   shared index
+	 */
+	private InvertedIndex target() {
+		return local
+				? locals.computeIfAbsent(Thread.currentThread(), thread -> new InvertedIndex())
+				: invertedIndex;
+	}
+
+	/**
+	 * Merges the local indexes of every worker into the shared index. The words
+	 * are split into one range per worker, and each range is combined from all
+	 * local indexes with a k-way merge on the work queue. The merged ranges do
+	 * not overlap, so adding them to the shared index is cheap.
+	 *
+	 * @see InvertedIndex#merge(Collection, String, String)
+	 */
+	private void mergeLocals() {
+		List<InvertedIndex> indexes = new ArrayList<>(locals.values());
+		locals.clear();
+		if(indexes.isEmpty()) {
+			return;
+		}
+
+		List<String> bounds = splitWords(indexes, queue.size());
+		InvertedIndex[] merged = new InvertedIndex[bounds.size() - 1];
+		log.debug("Merging {} local indexes in {} ranges.", indexes.size(), merged.length);
+
+		for(int i = 0; i < merged.length; i++) {
+			int range = i;
+			tasks.execute(() -> {
+				merged[range] = InvertedIndex.merge(indexes, bounds.get(range), bounds.get(range + 1));
+			});
+		}
+		tasks.finish();
+
+		for(InvertedIndex range : merged) {
+			invertedIndex.addAll(range);
+		}
+		for(InvertedIndex index : indexes) {
+			invertedIndex.addCounts(index);
+		}
+	}
+
+	/**
+	 * Picks words that split the largest index into roughly equal ranges.
+	 *
+	 * @param indexes the indexes to be split
+	 * @param parts the number of ranges to split into
+	 * @return the range bounds, starting and ending with {@code null} for the
+	 *   first and last word
+	 */
+	private static List<String> splitWords(List<InvertedIndex> indexes, int parts) {
+		InvertedIndex largest = indexes.get(0);
+		for(InvertedIndex index : indexes) {
+			if(index.stemCount() > largest.stemCount()) {
+				largest = index;
+			}
+		}
+
+		List<String> bounds = new ArrayList<>();
+		bounds.add(null);
+
+		int step = largest.stemCount() / Math.max(1, parts);
+		if(step > 0) {
+			int i = 0;
+			for(String word : largest.getWords()) {
+				if(i > 0 && i % step == 0 && bounds.size() < parts) {
+					bounds.add(word);
+				}
+				i++;
+			}
+		}
+
+		bounds.add(null);
+		return bounds;
 	}
 
 	/**
@@ -66,13 +376,158 @@ public class ThreadSafeIndexBuilder implements IndexBuilder {
 
 		@Override
 		public void run() {
-			InvertedIndex tempIndex = new InvertedIndex();
 			try{
-				InvertedIndexBuilder.readFile(path, tempIndex);
-				invertedIndex.addAll(tempIndex);
+				//Read into a fresh index so a file that fails partway adds nothing
+				InvertedIndex tempIndex = new InvertedIndex();
+				if(filter == null) {
+					InvertedIndexBuilder.readFile(path, tempIndex, analyzer);
+				}
+				else {
+					InvertedIndexBuilder.readFile(path, tempIndex, analyzer, filter);
+				}
+
+				if(local) {
+					target().addAll(tempIndex);
+				}
+				else {
+					invertedIndex.addAll(tempIndex);
+				}
 			}
 			catch(IOException e) {
 					log.debug("An IO error was thrown and needs to be handled.");
+					unread.add(path);
+			}
+		}
+	}
+
+	/**
+	 * Collects the chunks of a single file as they are indexed. Each chunk counts
+	 * its positions from 1, so once the last chunk is done the positions are
+	 * shifted by the number of words in all earlier chunks (a prefix sum) and
+	 * the combined result is added to the shared index. The result is identical
+	 * to reading the file in one pass.
+	 */
+	private class ChunkedFile {
+		/** The location the chunks are indexed under. */
+		private final String location;
+
+		/** The index built from each chunk, in file order. */
+		private final InvertedIndex[] indexes;
+
+		/** The number of words in each chunk, in file order. */
+		private final int[] counts;
+
+		/** The number of chunks that have not finished yet. */
+		private final AtomicInteger remaining;
+
+		/** Set if any chunk could not be read. */
+		private volatile boolean failed;
+
+		/**
+		 * Initializes the chunk results for a file.
+		 *
+		 * @param location the location the chunks are indexed under
+		 * @param chunks the number of chunks the file is split into
+		 */
+		public ChunkedFile(String location, int chunks) {
+			this.location = location;
+			this.indexes = new InvertedIndex[chunks];
+			this.counts = new int[chunks];
+			this.remaining = new AtomicInteger(chunks);
+			this.failed = false;
+		}
+
+		/**
+		 * Records the result of one chunk. The thread finishing the last chunk
+		 * merges all of them into the shared index.
+		 *
+		 * @param chunk the position of the chunk within the file
+		 * @param index the index built from the chunk, or {@code null} if the
+		 *   chunk could not be read
+		 * @param count the number of words in the chunk
+		 */
+		public void finish(int chunk, InvertedIndex index, int count) {
+			if(index == null) {
+				failed = true;
+			}
+			indexes[chunk] = index;
+			counts[chunk] = count;
+
+			if(remaining.decrementAndGet() == 0 && !failed) {
+				InvertedIndex merged = indexes[0];
+				int offset = counts[0];
+				for(int i = 1; i < indexes.length; i++) {
+					merged.addAll(indexes[i], offset);
+					offset += counts[i];
+				}
+				target().addAll(merged);
+				log.debug("Merged {} chunks from {}.", indexes.length, location);
+			}
+		}
+	}
+
+	/**
+	 * This inner class represents a Runnable task that indexes one chunk of a
+	 * large file.
+	 */
+	private class ChunkTask implements Runnable {
+		/** The file the chunk is read from. */
+		private final Path path;
+
+		/** The results of the other chunks of the same file. */
+		private final ChunkedFile file;
+
+		/** The position of the chunk within the file. */
+		private final int chunk;
+
+		/** The byte offset the chunk starts at. */
+		private final long start;
+
+		/** The byte offset the chunk ends at (exclusive). */
+		private final long end;
+
+		/**
+		 * Initializes the task for one chunk of a file.
+		 *
+		 * @param path the file the chunk is read from
+		 * @param file the results of the other chunks of the same file
+		 * @param chunk the position of the chunk within the file
+		 * @param start the byte offset the chunk starts at
+		 * @param end the byte offset the chunk ends at (exclusive)
+		 */
+		public ChunkTask(Path path, ChunkedFile file, int chunk, long start, long end) {
+			this.path = path;
+			this.file = file;
+			this.chunk = chunk;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public void run() {
+			InvertedIndex tempIndex = new InvertedIndex();
+			int count = 0;
+			try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+				while(buffer.hasRemaining()) {
+					if(channel.read(buffer, start + buffer.position()) < 0) {
+						break;
+					}
+				}
+
+				InputStream input = new ByteArrayInputStream(buffer.array(), 0, buffer.position());
+				try(BufferedReader br = new BufferedReader(
+						new InputStreamReader(input, StandardCharsets.UTF_8.newDecoder()))) {
+					count = InvertedIndexBuilder.readLines(br, file.location, tempIndex, analyzer);
+				}
+			}
+			catch(IOException e) {
+				log.debug("An IO error was thrown and needs to be handled.");
+				unread.add(path);
+				tempIndex = null;
+			}
+			finally {
+				file.finish(chunk, tempIndex, count);
 			}
 		}
 	}
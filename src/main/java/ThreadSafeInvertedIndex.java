@@ -1,5 +1,8 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -57,6 +60,114 @@ public class ThreadSafeInvertedIndex extends InvertedIndex{
 		}
 	}
 
+	@Override
+	public void addCounts(InvertedIndex index) {
+		lock.writeLock().lock();
+		
+		try {
+			super.addCounts(index);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void addAll(InvertedIndex index, int offset) {
+		lock.writeLock().lock();
+		
+		try {
+			super.addAll(index, offset);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean remove(String location) {
+		lock.writeLock().lock();
+		
+		try {
+			return super.remove(location);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean delete(String location) {
+		lock.writeLock().lock();
+		
+		try {
+			return super.delete(location);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void replace(List<String> words, String location) {
+		lock.writeLock().lock();
+		
+		try {
+			super.replace(words, location);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void update(Map<String, InvertedIndex> updated, Collection<String> removed) {
+		lock.writeLock().lock();
+		
+		try {
+			super.update(updated, removed);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void addCopies(Map<String, ? extends Collection<String>> copies) {
+		lock.writeLock().lock();
+		
+		try {
+			super.addCopies(copies);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public int compact() {
+		lock.writeLock().lock();
+		
+		try {
+			return super.compact();
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean isDeleted(String location) {
+		lock.readLock().lock();
+		
+		try {
+			return super.isDeleted(location);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
 	@Override
 	public List<QueryResult> exactSearch(Set<String> elem) {
 		lock.readLock().lock();
@@ -224,4 +335,28 @@ public class ThreadSafeInvertedIndex extends InvertedIndex{
 			lock.readLock().unlock();
 		}
 	}
+
+	@Override
+	public void write(DataOutputStream out) throws IOException {
+		lock.readLock().lock();
+
+		try {
+			super.write(out);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void read(DataInputStream in) throws IOException {
+		lock.writeLock().lock();
+
+		try {
+			super.read(in);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
 }
\ No newline at end of file
@@ -3,11 +3,15 @@ import java.io.IOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * This class builds a list of queries from file reading as well as storing
@@ -29,6 +33,24 @@ public class ThreadSafeQueryBuilder implements QueryBuilder {
 	 */
 	private final WorkQueue queue;
 
+	/** The tasks of this builder, which may share the queue with other work. */
+	private final TaskGroup tasks;
+
+	/** The analyzer used to turn each query line into search terms. */
+	private final TextAnalyzer analyzer;
+
+	/**
+	 * How long a single search may take before it is interrupted, or
+	 * {@code null} if searches may take any amount of time.
+	 */
+	private final Duration timeout;
+
+	/**
+	 * The searches submitted since the last build, by their joined query. Only
+	 * used by the thread reading the query lines, so it is not synchronized.
+	 */
+	private final Map<String, CompletableFuture<List<InvertedIndex.QueryResult>>> searches;
+
 	/**
 	 * Initializes the queryResult and queryList instance members to a new
 	 * TreeMap and ArrayList respectively.
@@ -36,12 +58,56 @@ public class ThreadSafeQueryBuilder implements QueryBuilder {
 	 * @param index invertedIndex to be referenced
 	 */
 	public ThreadSafeQueryBuilder(ThreadSafeInvertedIndex index, WorkQueue queue) {
+		this(index, queue, new TextAnalyzer());
+	}
+
+	/**
+	 * Initializes the builder with the analyzer used for query lines, which
+	 * should match the one used to build the index.
+	 *
+	 * @param index invertedIndex to be referenced
+	 * @param queue work queue the query lines are searched on
+	 * @param analyzer analyzer used to turn query lines into search terms
+	 */
+	public ThreadSafeQueryBuilder(ThreadSafeInvertedIndex index, WorkQueue queue, TextAnalyzer analyzer) {
+		this(index, queue, analyzer, null);
+	}
+
+	/**
+	 * Initializes the builder with a limit on how long each search may take.
+	 * Searches that run out of time are interrupted and left out of the results.
+	 *
+	 * @param index invertedIndex to be referenced
+	 * @param queue work queue the query lines are searched on
+	 * @param analyzer analyzer used to turn query lines into search terms
+	 * @param timeout how long a single search may take, or {@code null} for no limit
+	 */
+	public ThreadSafeQueryBuilder(ThreadSafeInvertedIndex index, WorkQueue queue, TextAnalyzer analyzer,
+			Duration timeout) {
 		this.index = index;
 		this.queue = queue;
+		// searches go ahead of any indexing sharing the queue
+		this.tasks = queue.newGroup(WorkQueue.Priority.HIGH);
+		this.analyzer = analyzer;
+		this.timeout = timeout;
+		this.searches = new LinkedHashMap<>();
 	}
 
+	/**
+	 * Stems the query line and submits its search, unless the same query was
+	 * already searched.
+	 */
 	public void readQueryLine(String line, boolean exact) {
-		queue.execute(new Task(line, exact));
+		var queries = analyzer.uniqueStems(line);
+		var joined = String.join(" ", queries);
+
+		if(queries.isEmpty() || searches.containsKey(joined) || containsResult(joined)) {
+			return;
+		}
+
+		searches.put(joined, timeout == null
+				? tasks.submit(() -> index.search(queries, exact))
+				: tasks.submit(() -> index.search(queries, exact), timeout));
 	}
 
 	public void build(Path mainPath, boolean exact) throws IOException {
@@ -52,14 +118,28 @@ public class ThreadSafeQueryBuilder implements QueryBuilder {
 			readQueryFile(mainPath, exact);
 		}
 		
-		queue.finish();
+		collectResults();
 	}
 
-	private void addResult(String queryLine, Set<String> queries, boolean exact) {
-		List<InvertedIndex.QueryResult> tempList = index.search(queries, exact);
-		synchronized(queryResult) {
-			queryResult.put(queryLine, tempList);
+	/**
+	 * Waits for the submitted searches and adds their results. Searches that
+	 * failed, timed out or were cancelled are left out.
+	 */
+	private void collectResults() {
+		for(var search : searches.entrySet()) {
+			try {
+				List<InvertedIndex.QueryResult> tempList = search.getValue().join();
+				synchronized(queryResult) {
+					queryResult.put(search.getKey(), tempList);
+				}
+			}
+			catch(CompletionException | CancellationException e) {
+				log.debug("Search for \"{}\" was aborted: {}", search.getKey(),
+						e.getCause() == null ? e : e.getCause());
+			}
 		}
+		searches.clear();
+		tasks.finish();
 	}
 	
 	public boolean containsResult(String queryKey) {
@@ -76,30 +156,9 @@ public class ThreadSafeQueryBuilder implements QueryBuilder {
 	 * @throws IOException file is invalid or can not be found
 	 */
 	public void resultToJson(Path output) throws IOException {
+		collectResults();
 		synchronized(queryResult) {
 			JsonWriter.asResult(queryResult, output);
 		}
 	}
-
-	public class Task implements Runnable {
-		String fileLine;
-		boolean exact;
-
-		public Task(String line, boolean exact) {
-			this.fileLine = line;
-			this.exact = exact;
-		}
-
-		@Override
-		public void run() {
-			synchronized(queryResult) {
-				var queries = TextStemmer.uniqueStems(fileLine);
-				var joined = String.join(" ", queries);
-
-				if (!queries.isEmpty() && !containsResult(joined)) {
-					addResult(joined, queries, exact);
-				}
-			}
-		}
-	}
-}
\ No newline at end of file
+}
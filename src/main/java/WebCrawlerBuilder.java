@@ -1,8 +1,13 @@
 import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -11,6 +16,17 @@ import org.apache.logging.log4j.Logger;
  * This class takes in an inverted index and url, populating the index with
  * the html content extracted from the page.
  *
+ * A crawl has three stages: fetching pages, cleaning them and extracting their
+ * links, and indexing their text. Each stage may be given its own work queue,
+ * so threads blocked on the network never hold up the CPU-bound stages and
+ * the other way around. Bounded queues for the later stages make the stage
+ * before them wait instead of piling up pages in memory.
+ *
+ * Pages are fetched with a {@link PageFetcher}. A blocking fetcher holds a
+ * fetch worker until the page arrives, while an asynchronous fetcher frees the
+ * worker as soon as the request is sent and hands the page to the parse stage
+ * once the response completes.
+ *
  * @author Adon Anglon
  */
 public class WebCrawlerBuilder {
@@ -22,14 +38,53 @@ public class WebCrawlerBuilder {
 	 */
 	private final ThreadSafeInvertedIndex invertedIndex;
 	
+	/** The work queue pages are cleaned and their links extracted on. */
+	private final WorkQueue queue;
+
 	/**
-	 * This QueryResult map holds lists of queryResults for each query line key.
+	 * The work queue pages are fetched on. If it is not the same as the queue
+	 * above, fetching is kept apart from the CPU-bound parsing so a large number
+	 * of fetches can wait on the network at once.
 	 */
-	private final WorkQueue queue;
-	
-	private Integer maxCrawl;
+	private final WorkQueue fetchQueue;
+
+	/** The work queue the text of each page is indexed on. */
+	private final WorkQueue indexQueue;
+
+	/** The parse tasks of this builder, which may share the queue with other work. */
+	private final TaskGroup pages;
+
+	/** The index tasks of this builder, which may share the queue with other work. */
+	private final TaskGroup indexes;
+
+	/** The fetch tasks of this builder, which may share the queue with other work. */
+	private final TaskGroup fetches;
+
+	/** The default number of threads fetching pages in a separate fetch queue. */
+	public static final int DEFAULT_FETCHERS = 64;
+
+	/** The default number of pages waiting for each stage after fetching. */
+	public static final int DEFAULT_HANDOFF = 256;
 	
+	/**
+	 * The accepted links not yet indexed or dropped, counted across every
+	 * stage. A link is counted once by each stage it is handed to before the
+	 * stage handing it off stops counting it, so this only reaches zero once
+	 * the whole crawl is done.
+	 */
+	private final AtomicInteger active;
+
+	/** The links of the current crawl, which limits it to the crawl budget. */
+	private CrawlFrontier frontier;
 	
+	/** The analyzer used to turn the text of each page into index terms. */
+	private final TextAnalyzer analyzer;
+
+	/** Skips pages identical to one already read, or {@code null} to read every page. */
+	private final DuplicateFilter filter;
+
+	/** Fetches the html of each page. */
+	private final PageFetcher fetcher;
 
 	/**
 	 * Passes an invertedIndex into the class to be altered.
@@ -37,32 +92,201 @@ public class WebCrawlerBuilder {
 	 * @param invertedIndex invertedIndex to be entered
 	 */
 	public WebCrawlerBuilder(ThreadSafeInvertedIndex index, WorkQueue queue) {
+		this(index, queue, new TextAnalyzer());
+	}
+
+	/**
+	 * Passes an invertedIndex into the class to be altered along with the
+	 * analyzer used to read pages.
+	 *
+	 * @param index invertedIndex to be entered
+	 * @param queue work queue the pages are crawled on
+	 * @param analyzer analyzer used to turn page text into index terms
+	 */
+	public WebCrawlerBuilder(ThreadSafeInvertedIndex index, WorkQueue queue, TextAnalyzer analyzer) {
+		this(index, queue, analyzer, null);
+	}
+
+	/**
+	 * Passes an invertedIndex into the class to be altered along with the
+	 * analyzer used to read pages and the filter used to skip identical pages.
+	 *
+	 * @param index invertedIndex to be entered
+	 * @param queue work queue the pages are crawled on
+	 * @param analyzer analyzer used to turn page text into index terms
+	 * @param filter filter that skips pages identical to one already read, or
+	 *   {@code null} to read every page
+	 */
+	public WebCrawlerBuilder(ThreadSafeInvertedIndex index, WorkQueue queue, TextAnalyzer analyzer,
+			DuplicateFilter filter) {
+		this(index, queue, queue, analyzer, filter);
+	}
+
+	/**
+	 * Passes an invertedIndex into the class to be altered along with separate
+	 * work queues for fetching and parsing pages. The fetch queue should have
+	 * many more threads than the parse queue since its threads spend most of
+	 * their time blocked on the network.
+	 *
+	 * @param index invertedIndex to be entered
+	 * @param queue work queue the pages are parsed and indexed on
+	 * @param fetchQueue work queue the pages are fetched on
+	 * @param analyzer analyzer used to turn page text into index terms
+	 * @param filter filter that skips pages identical to one already read, or
+	 *   {@code null} to read every page
+	 */
+	public WebCrawlerBuilder(ThreadSafeInvertedIndex index, WorkQueue queue, WorkQueue fetchQueue,
+			TextAnalyzer analyzer, DuplicateFilter filter) {
+		this(index, fetchQueue, queue, queue, analyzer, filter);
+	}
+
+	/**
+	 * Passes an invertedIndex into the class to be altered along with a work
+	 * queue for each stage of the crawl. The fetch queue should not be bounded,
+	 * since the parsers add the links they find to it and must never wait on
+	 * the network. The parse and index queues may be bounded to limit how many
+	 * pages wait in memory.
+	 *
+	 * @param index invertedIndex to be entered
+	 * @param fetchQueue work queue the pages are fetched on
+	 * @param parseQueue work queue the pages are cleaned and their links
+	 *   extracted on
+	 * @param indexQueue work queue the text of each page is indexed on
+	 * @param analyzer analyzer used to turn page text into index terms
+	 * @param filter filter that skips pages identical to one already read, or
+	 *   {@code null} to read every page
+	 */
+	public WebCrawlerBuilder(ThreadSafeInvertedIndex index, WorkQueue fetchQueue, WorkQueue parseQueue,
+			WorkQueue indexQueue, TextAnalyzer analyzer, DuplicateFilter filter) {
+		this(index, fetchQueue, parseQueue, indexQueue, analyzer, filter, PageFetcher.blocking());
+	}
+
+	/**
+	 * Passes an invertedIndex into the class to be altered along with a work
+	 * queue for each stage of the crawl and the fetcher used to download pages.
+	 * With an asynchronous fetcher, the fetch queue only sends requests, so it
+	 * needs no more threads than the parse queue.
+	 *
+	 * @param index invertedIndex to be entered
+	 * @param fetchQueue work queue the pages are fetched on
+	 * @param parseQueue work queue the pages are cleaned and their links
+	 *   extracted on
+	 * @param indexQueue work queue the text of each page is indexed on
+	 * @param analyzer analyzer used to turn page text into index terms
+	 * @param filter filter that skips pages identical to one already read, or
+	 *   {@code null} to read every page
+	 * @param fetcher fetcher used to download the html of each page
+	 */
+	public WebCrawlerBuilder(ThreadSafeInvertedIndex index, WorkQueue fetchQueue, WorkQueue parseQueue,
+			WorkQueue indexQueue, TextAnalyzer analyzer, DuplicateFilter filter, PageFetcher fetcher) {
 		this.invertedIndex = index;
-		this.queue = queue;
+		this.queue = parseQueue;
+		this.fetchQueue = fetchQueue;
+		this.indexQueue = indexQueue;
+		this.pages = parseQueue.newGroup();
+		this.fetches = fetchQueue.newGroup();
+		this.indexes = indexQueue.newGroup();
+		this.analyzer = analyzer;
+		this.filter = filter;
+		this.fetcher = fetcher;
+		this.active = new AtomicInteger();
 	}
 	
+	/**
+	 * Crawls from the url until the crawl budget is used up or no new links are
+	 * left, visiting each page at most once in breadth-first order.
+	 *
+	 * @param url the first page to crawl
+	 * @param maxCrawl the most pages to crawl, including the first
+	 * @throws IOException if the url is malformed
+	 */
 	public void build(String url, int maxCrawl) throws IOException {
+		build(url, maxCrawl, SeenSet.exact());
+	}
+
+	/**
+	 * Crawls from the url until the crawl budget is used up or no new links are
+	 * left, remembering the links seen in the given set.
+	 *
+	 * @param url the first page to crawl
+	 * @param maxCrawl the most pages to crawl, including the first
+	 * @param seen the empty set to remember the links seen in
+	 * @throws IOException if the url is malformed
+	 */
+	public void build(String url, int maxCrawl, SeenSet seen) throws IOException {
 		log.debug("Beginning build...");
-		this.maxCrawl = maxCrawl;
-		crawl(url);
-		queue.finish();
+		frontier = new CrawlFrontier(Math.max(1, maxCrawl), seen);
+		crawlURL(normalize(new URL(url)), 0);
+		finishCrawl();
+		log.debug("Saw {} distinct links in {}.", frontier.seen(), seen);
+		log.debug("Fetched with connections {}.", HttpsFetcher.getPool());
+
+		if(filter != null) {
+			filter.apply(invertedIndex);
+		}
 	}
 	
-	public void crawl(String url) throws IOException {
+	/**
+	 * Fetches the page of an accepted link and passes it on to be parsed. If
+	 * the fetcher has not finished by the time it returns, the worker moves on
+	 * and the page is handed to the parse queue once it arrives.
+	 *
+	 * @param link the link to crawl
+	 * @throws IOException if the url is malformed
+	 */
+	public void crawl(CrawlFrontier.Link link) throws IOException {
+		String url = link.getUrl().toString();
 		log.debug("Retrieving html...");
-		String html = HtmlFetcher.fetch(url, 3);
+		CompletableFuture<String> page = fetcher.fetch(link.getUrl(), 3);
+
+		if(!page.isDone()) {
+			//Counted until the page is handed off, so the build waits for it
+			active.incrementAndGet();
+			fetches.track(page.thenAccept(html -> {
+				if(html == null) {
+					log.debug("Unable to fetch " + url);
+				}
+				else {
+					handOff(pages, new PageTask(html, url, link.getDepth()));
+				}
+			}).whenComplete((result, error) -> release()));
+			return;
+		}
+
+		String html = page.join();
 		log.debug("Retrieved!");
+
+		if(html == null) {
+			log.debug("Unable to fetch " + url);
+		}
+		else if(fetchQueue == queue) {
+			processPage(html, url, link.getDepth());
+		}
+		else {
+			handOff(pages, new PageTask(html, url, link.getDepth()));
+		}
+	}
+
+	/**
+	 * Finds the links of a fetched page and crawls them while the crawl limit
+	 * allows, then indexes the text of the page.
+	 *
+	 * @param html the fetched page
+	 * @param url the url the page was fetched from
+	 * @param depth the number of links followed from the first page to reach it
+	 * @throws IOException if the url is malformed
+	 */
+	public void processPage(String html, String url, int depth) throws IOException {
 		html = HtmlCleaner.stripBlockElements(html);
 		log.debug("Stripped block elements!");
 		List<URL> validLinks = LinkParser.getValidLinks(new URL(url), html);
 		log.debug("Found Valid Links!");
 		log.debug("Executing validLink loop...");
-		synchronized(maxCrawl) {
-			while(validLinks.size() > 0 && maxCrawl > 0) {
-				maxCrawl--;
-				log.debug("NEW LINK FOUND! Executing new crawl for " + validLinks.get(0));
-				crawlURL(validLinks.remove(0));
+		for(URL link : validLinks) {
+			if(!frontier.hasBudget()) {
+				break;
 			}
+			crawlURL(link, depth + 1);
 		}
 		log.debug("Finished loop!");
 		log.debug("Stripping rest of HTML...");
@@ -74,28 +298,109 @@ public class WebCrawlerBuilder {
 	}
 	
 	public void readPage(String html, String url) {
-		queue.execute(new ParseTask(html, url));
+		handOff(indexes, new ParseTask(html, url));
 	}
 	
-	public void crawlURL(URL url) {
-		queue.execute(new WebTask(url));
+	/**
+	 * Adds a fetch task for the link unless it was already seen or the crawl
+	 * budget is used up.
+	 *
+	 * @param url the normalized link
+	 * @param depth the number of links followed from the first page to reach it
+	 */
+	public void crawlURL(URL url, int depth) {
+		if(frontier.offer(url, depth)) {
+			log.debug("NEW LINK FOUND! Executing new crawl for " + url);
+			handOff(fetches, new WebTask());
+		}
 	}
 
 	/**
-	 * This inner class represents a Runnable task that can be added to a work
-	 * queue for multithreading.
+	 * Adds a task for the next stage of an accepted link to its group, counting
+	 * the link as active until the task is done. Should be called before the
+	 * current stage of the link is done, so the count never drops to zero in
+	 * between.
+	 *
+	 * @param group the group of the next stage
+	 * @param task the task of the next stage
+	 * @throws RejectedExecutionException if the queue is full and rejects tasks
 	 */
-	private class WebTask implements Runnable {
-		URL url;
+	private void handOff(TaskGroup group, Runnable task) {
+		active.incrementAndGet();
+		try {
+			group.execute(() -> {
+				try {
+					task.run();
+				}
+				finally {
+					release();
+				}
+			});
+		}
+		catch(RejectedExecutionException e) {
+			release();
+			throw e;
+		}
+	}
 
-		public WebTask(URL url) {
-			this.url = url;
+	/**
+	 * Stops counting a stage of an accepted link, and wakes up the build once
+	 * no links are active.
+	 */
+	private void release() {
+		if(active.decrementAndGet() == 0) {
+			synchronized(active) {
+				active.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Waits until every accepted link has been fetched, parsed and indexed, or
+	 * dropped along the way.
+	 */
+	private void finishCrawl() {
+		synchronized(active) {
+			try {
+				while(active.get() > 0) {
+					active.wait();
+				}
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Normalizes the first url the same way as the links found on pages, so it
+	 * is not crawled a second time when a page links back to it.
+	 *
+	 * @param url the url to normalize
+	 * @return the normalized url, or the url itself if it cannot be normalized
+	 */
+	private static URL normalize(URL url) {
+		try {
+			return LinkParser.normalize(url);
+		}
+		catch(MalformedURLException | URISyntaxException e) {
+			return url;
 		}
+	}
 
+	/**
+	 * This inner class represents a Runnable task that can be added to a work
+	 * queue for multithreading. Each task crawls whichever accepted link is
+	 * next in breadth-first order when it runs, rather than a fixed link.
+	 */
+	private class WebTask implements Runnable {
 		@Override
 		public void run() {
 			try{
-				crawl(url.toString());
+				CrawlFrontier.Link link = frontier.poll();
+				if(link != null) {
+					crawl(link);
+				}
 			}
 			catch(IOException e) {
 					log.debug("An IO error was thrown and needs to be handled.");
@@ -103,6 +408,44 @@ public class WebCrawlerBuilder {
 		}
 	}
 	
+	/**
+	 * This inner class represents a Runnable task that processes a fetched page
+	 * on the parse queue.
+	 */
+	private class PageTask implements Runnable {
+		/** The fetched page. */
+		private final String html;
+
+		/** The url the page was fetched from. */
+		private final String url;
+
+		/** The number of links followed from the first page to reach it. */
+		private final int depth;
+
+		/**
+		 * Initializes the task.
+		 *
+		 * @param html the fetched page
+		 * @param url the url the page was fetched from
+		 * @param depth the number of links followed from the first page to reach it
+		 */
+		public PageTask(String html, String url, int depth) {
+			this.html = html;
+			this.url = url;
+			this.depth = depth;
+		}
+
+		@Override
+		public void run() {
+			try {
+				processPage(html, url, depth);
+			}
+			catch(IOException e) {
+				log.debug("An IO error was thrown and needs to be handled.");
+			}
+		}
+	}
+
 	/**
 	 * This inner class represents a Runnable task that can be added to a work
 	 * queue for multithreading.
@@ -118,8 +461,13 @@ public class WebCrawlerBuilder {
 
 		@Override
 		public void run() {
+			if(filter != null && filter.isDuplicate(url, html)) {
+				log.debug("Skipped duplicate page " + url);
+				return;
+			}
+
 			InvertedIndex tempIndex = new InvertedIndex();
-			tempIndex.addAll(TextFileStemmer.listStems(html), url);
+			tempIndex.addAll(analyzer.listStems(html), url);
 			invertedIndex.addAll(tempIndex);
 			log.debug("Finished copying index from " + url);
 			
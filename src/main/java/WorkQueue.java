@@ -1,5 +1,14 @@
-import java.util.Arrays;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
@@ -10,7 +19,18 @@ import org.apache.logging.log4j.Logger;
 /**
  * A simple work queue implementation based on the IBM developerWorks article by
  * Brian Goetz. Modified to keep track of the amount of pending or unfinished
- * work (or tasks) must still be completed.
+ * work (or tasks) must still be completed. The queue may be given a capacity,
+ * along with a {@link Policy} for tasks added while it is full, so fast
+ * producers cannot fill the heap with waiting tasks. Tasks are taken in
+ * {@link Priority} order, so latency sensitive work such as searches does not
+ * wait behind background indexing, while lower priorities are still served
+ * now and then so they never starve.
+ *
+ * An adaptive queue is given a minimum and maximum number of workers instead
+ * of a fixed number. Workers are added while tasks are waiting and the tasks
+ * spend enough of their time blocked (rather than using the CPU) for more
+ * threads to help, and workers retire once they sit idle or the tasks turn
+ * out to be CPU bound.
  *
  * @see <a href=
  *   "https://web.archive.org/web/20210126172022/https://www.ibm.com/developerworks/library/j-jtp0730/index.html">
@@ -21,13 +41,31 @@ import org.apache.logging.log4j.Logger;
  */
 public class WorkQueue {
 	/** Used to count how many tasks are remaining. */
-	private int pending;
+	private final AtomicInteger pending;
 
 	/** Workers that wait until work (or tasks) are available. */
-	private final Worker[] workers;
+	private final List<Worker> workers;
+
+	/** The fewest worker threads kept running. */
+	private final int minThreads;
+
+	/** The most worker threads ever running at once. */
+	private final int maxThreads;
 
-	/** Queue of pending work (or tasks). */
-	private final LinkedList<Runnable> tasks;
+	/** How long an extra worker of an adaptive queue stays idle, in nanoseconds. */
+	private final long keepAlive;
+
+	/** The number of workers waiting for tasks. */
+	private int idle;
+
+	/**
+	 * The recent average share of the time running a task spent using the CPU
+	 * rather than blocked, or a negative number if nothing was measured yet.
+	 */
+	private double utilization;
+
+	/** Queue of pending work (or tasks), with a lane for each priority. */
+	private final Lanes tasks;
 
 	/** Used to signal the workers should terminate. */
 	private volatile boolean shutdown;
@@ -35,6 +73,69 @@ public class WorkQueue {
 	/** The default number of worker threads to use when not specified. */
 	public static final int DEFAULT = 5;
 
+	/** The default most worker threads of an adaptive queue. */
+	public static final int DEFAULT_MAX = 64;
+
+	/** The default time an extra worker of an adaptive queue stays idle. */
+	public static final Duration DEFAULT_KEEP_ALIVE = Duration.ofSeconds(1);
+
+	/** How much each task counts towards the average task times. */
+	private static final int SAMPLE_WEIGHT = 16;
+
+	/** Measures how much CPU time the workers use. */
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	/** The capacity of a queue that never fills up. */
+	public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+	/** The most tasks that may wait in the queue at once. */
+	private final int capacity;
+
+	/** What happens to a task added while the queue is full. */
+	private final Policy policy;
+
+	/** How long tasks wait and run, and how busy the workers are. */
+	private final QueueMetrics metrics;
+
+	/**
+	 * What happens to a task added while the queue is at capacity.
+	 */
+	public enum Policy {
+		/**
+		 * Waits for room in the queue. Worker threads of the same queue add the
+		 * task past the capacity instead, since every worker waiting would
+		 * deadlock.
+		 */
+		BLOCK,
+
+		/** Runs the task on the thread that added it. */
+		CALLER_RUNS,
+
+		/** Throws a {@link RejectedExecutionException}. */
+		REJECT
+	}
+
+	/**
+	 * The order tasks are taken from the queue in. Tasks of the same priority
+	 * are taken in the order they were added.
+	 */
+	public enum Priority {
+		/** Latency sensitive work, such as searches run while indexing. */
+		HIGH,
+
+		/** The priority of tasks added without one. */
+		NORMAL,
+
+		/** Background work that may wait behind everything else. */
+		LOW
+	}
+
+	/**
+	 * How many tasks may be taken from higher priorities while a lower priority
+	 * task is waiting before the lower priority task is taken anyway.
+	 */
+	public static final int STARVATION_LIMIT = 8;
+
 	/** Logger used for this class. */
 	private static final Logger log = LogManager.getLogger();
 
@@ -53,18 +154,95 @@ public class WorkQueue {
 	 * @param threads number of worker threads; should be greater than 1
 	 */
 	public WorkQueue(int threads) {
-		this.tasks = new LinkedList<Runnable>();
-		pending = 0;
-		this.workers = new Worker[threads];
+		this(threads, true);
+	}
+
+	/**
+	 * Starts a work queue with the specified number of threads that holds at
+	 * most the specified number of waiting tasks.
+	 *
+	 * @param threads number of worker threads; should be greater than 1
+	 * @param capacity the most tasks that may wait in the queue at once
+	 * @param policy what happens to a task added while the queue is full
+	 */
+	public WorkQueue(int threads, int capacity, Policy policy) {
+		this(threads, threads, DEFAULT_KEEP_ALIVE, capacity, policy, true);
+	}
+
+	/**
+	 * Starts an adaptive work queue that grows and shrinks between the
+	 * specified number of threads.
+	 *
+	 * @param minThreads the fewest worker threads kept running
+	 * @param maxThreads the most worker threads ever running at once
+	 * @param keepAlive how long an extra worker stays idle before it retires
+	 */
+	public WorkQueue(int minThreads, int maxThreads, Duration keepAlive) {
+		this(minThreads, maxThreads, keepAlive, UNBOUNDED, Policy.BLOCK);
+	}
+
+	/**
+	 * Starts an adaptive work queue that grows and shrinks between the
+	 * specified number of threads and holds at most the specified number of
+	 * waiting tasks.
+	 *
+	 * @param minThreads the fewest worker threads kept running
+	 * @param maxThreads the most worker threads ever running at once
+	 * @param keepAlive how long an extra worker stays idle before it retires
+	 * @param capacity the most tasks that may wait in the queue at once
+	 * @param policy what happens to a task added while the queue is full
+	 */
+	public WorkQueue(int minThreads, int maxThreads, Duration keepAlive, int capacity, Policy policy) {
+		this(minThreads, maxThreads, keepAlive, capacity, policy, true);
+	}
+
+	/**
+	 * Starts a work queue with the specified number of threads, or only sets up
+	 * an empty queue if the threads are not started. Subclasses that run tasks
+	 * on a different kind of pool pass {@code false} and override the public
+	 * methods.
+	 *
+	 * @param threads number of worker threads; should be greater than 1
+	 * @param start if false, no worker threads are created
+	 */
+	protected WorkQueue(int threads, boolean start) {
+		this(threads, threads, DEFAULT_KEEP_ALIVE, UNBOUNDED, Policy.BLOCK, start);
+	}
+
+	/**
+	 * Starts a work queue with the specified bounds on threads and capacity, or
+	 * only sets up an empty queue if the threads are not started.
+	 *
+	 * @param minThreads the fewest worker threads kept running
+	 * @param maxThreads the most worker threads ever running at once
+	 * @param keepAlive how long an extra worker stays idle before it retires
+	 * @param capacity the most tasks that may wait in the queue at once
+	 * @param policy what happens to a task added while the queue is full
+	 * @param start if false, no worker threads are created
+	 */
+	private WorkQueue(int minThreads, int maxThreads, Duration keepAlive, int capacity, Policy policy,
+			boolean start) {
+		this.tasks = new Lanes();
+		this.capacity = Math.max(1, capacity);
+		this.policy = policy;
+		this.metrics = new QueueMetrics();
+		this.pending = new AtomicInteger();
+		this.minThreads = start ? Math.max(1, minThreads) : 0;
+		this.maxThreads = Math.max(this.minThreads, start ? maxThreads : 0);
+		this.keepAlive = keepAlive.toNanos();
+		this.workers = new ArrayList<>();
+		this.idle = 0;
+		this.utilization = -1;
 		this.shutdown = false;
 
 		// start the threads so they are waiting in the background
-		for (int i = 0; i < threads; i++) {
-			workers[i] = new Worker();
-			workers[i].start();
+		synchronized (tasks) {
+			for (int i = 0; i < this.minThreads; i++) {
+				startWorker();
+			}
 		}
 
-		log.debug("Work queue initialized with {} worker threads.", workers.length);
+		log.debug("Work queue initialized with {} to {} worker threads.", this.minThreads, this.maxThreads);
 	}
 
 	/**
@@ -75,10 +253,217 @@ public class WorkQueue {
 	 * @param task work request (in the form of a {@link Runnable} object)
 	 */
 	public void execute(Runnable task) {
-		incrementPending();
+		execute(task, Priority.NORMAL);
+	}
+
+	/**
+	 * Adds a work (or task) request with the given priority to the queue and
+	 * increments the amount of pending tasks that must be completed.
+	 *
+	 * @param task work request (in the form of a {@link Runnable} object)
+	 * @param priority the order the task is taken from the queue in
+	 * @throws RejectedExecutionException if the queue is full and rejects tasks
+	 */
+	public void execute(Runnable task, Priority priority) {
 		synchronized (tasks) {
-			tasks.addLast(task);
-			tasks.notifyAll();
+			if (tasks.size() < capacity || offer()) {
+				incrementPending();
+				tasks.add(task, priority);
+				metrics.recordDepth(tasks.size());
+				tasks.notifyAll();
+
+				grow();
+				return;
+			}
+
+			if (policy == Policy.REJECT) {
+				throw new RejectedExecutionException("Work queue is full.");
+			}
+		}
+
+		// runs outside the lock so the workers can keep taking tasks
+		log.trace("Work queue full, running task on the caller.");
+		runTask(task);
+	}
+
+	/**
+	 * Adds a task that computes a result to the queue.
+	 *
+	 * @param <T> the type of result
+	 * @param task the task that computes the result
+	 * @return the future result, which interrupts the task if cancelled
+	 * @throws RejectedExecutionException if the queue is full and rejects tasks
+	 */
+	public <T> TaskFuture<T> submit(Callable<T> task) {
+		TaskFuture<T> future = new TaskFuture<>(task);
+		execute(future);
+		return future;
+	}
+
+	/**
+	 * Adds a task that computes a result to the queue, failing the result with a
+	 * {@link TimeoutException} and interrupting the task if it takes too long.
+	 *
+	 * @param <T> the type of result
+	 * @param task the task that computes the result
+	 * @param timeout how long the task may take, including time in the queue
+	 * @return the future result, which interrupts the task if cancelled
+	 * @throws RejectedExecutionException if the queue is full and rejects tasks
+	 *
+	 * @see TaskFuture#cancelAfter(Duration)
+	 */
+	public <T> TaskFuture<T> submit(Callable<T> task, Duration timeout) {
+		return submit(task).cancelAfter(timeout);
+	}
+
+	/**
+	 * Adds a task with the given priority that computes a result to the queue.
+	 *
+	 * @param <T> the type of result
+	 * @param task the task that computes the result
+	 * @param priority the order the task is taken from the queue in
+	 * @return the future result, which interrupts the task if cancelled
+	 * @throws RejectedExecutionException if the queue is full and rejects tasks
+	 */
+	public <T> TaskFuture<T> submit(Callable<T> task, Priority priority) {
+		TaskFuture<T> future = new TaskFuture<>(task);
+		execute(future, priority);
+		return future;
+	}
+
+	/**
+	 * Waits for room in the full queue if the policy allows it. Must be called
+	 * while holding the lock on the tasks.
+	 *
+	 * @return true if the task should be added to the queue
+	 */
+	private boolean offer() {
+		if (policy != Policy.BLOCK) {
+			return false;
+		}
+		if (Thread.currentThread() instanceof Worker && isWorker()) {
+			return true;
+		}
+
+		try {
+			while (tasks.size() >= capacity && !shutdown) {
+				tasks.wait();
+			}
+		}
+		catch (InterruptedException e) {
+			log.catching(Level.DEBUG, e);
+			Thread.currentThread().interrupt();
+		}
+		return tasks.size() < capacity || shutdown;
+	}
+
+	/**
+	 * Determines if the calling thread is one of the workers of this queue.
+	 *
+	 * @return true if the calling thread is a worker of this queue
+	 */
+	private boolean isWorker() {
+		return workers.contains(Thread.currentThread());
+	}
+
+	/**
+	 * Determines if the number of workers changes with the load.
+	 *
+	 * @return true if the queue is adaptive
+	 */
+	private boolean isAdaptive() {
+		return minThreads < maxThreads;
+	}
+
+	/**
+	 * Starts a new worker. Must be called while holding the lock on the tasks.
+	 */
+	private void startWorker() {
+		Worker worker = new Worker();
+		workers.add(worker);
+		worker.start();
+		log.debug("Work queue started worker {} of {}.", workers.size(), maxThreads);
+	}
+
+	/**
+	 * Starts another worker of an adaptive queue if the idle workers cannot take
+	 * every waiting task and the estimate allows more workers. Must be called
+	 * while holding the lock on the tasks.
+	 */
+	private void grow() {
+		if (isAdaptive() && !shutdown && tasks.size() > idle && workers.size() < targetSize()) {
+			startWorker();
+		}
+	}
+
+	/**
+	 * Estimates how many workers keep the CPUs busy, using the number of
+	 * processors divided by the share of time tasks spend computing. This is
+	 * the same as the processors times one plus the ratio of time tasks spend
+	 * blocked to time they spend computing. Must be called while holding the
+	 * lock on the tasks.
+	 *
+	 * @return the number of workers to aim for, within the bounds of the queue
+	 */
+	private int targetSize() {
+		int processors = Runtime.getRuntime().availableProcessors();
+		double target;
+
+		if (utilization < 0) {
+			// nothing measured yet
+			target = processors;
+		}
+		else if (utilization == 0) {
+			// only ever blocked, or CPU time cannot be measured
+			target = maxThreads;
+		}
+		else {
+			target = Math.ceil(processors / utilization);
+		}
+
+		return (int) Math.max(minThreads, Math.min(maxThreads, target));
+	}
+
+	/**
+	 * Adds the times of a finished task to the recent average utilization. Must
+	 * be called while holding the lock on the tasks.
+	 *
+	 * @param wall the time the task took, in nanoseconds
+	 * @param cpu the CPU time the task used, in nanoseconds
+	 */
+	private void sample(long wall, long cpu) {
+		double share = wall <= 0 ? 1 : Math.min(1, (double) cpu / wall);
+
+		if (utilization < 0) {
+			utilization = share;
+		}
+		else {
+			utilization += (share - utilization) / SAMPLE_WEIGHT;
+		}
+	}
+
+	/**
+	 * Returns the CPU time used by the calling thread so far.
+	 *
+	 * @return the CPU time in nanoseconds, or 0 if it cannot be measured
+	 */
+	private static long cpuTime() {
+		return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+	}
+
+	/**
+	 * Runs a task on the calling thread, logging any runtime exception it throws
+	 * just like a worker thread would.
+	 *
+	 * @param task the task to run
+	 */
+	private void runTask(Runnable task) {
+		try {
+			task.run();
+		}
+		catch (RuntimeException e) {
+			log.error("Warning: Thread {} encountered an exception while running.", Thread.currentThread().getName());
+			log.catching(Level.DEBUG, e);
 		}
 	}
 
@@ -92,9 +477,9 @@ public class WorkQueue {
 		log.debug("Waiting for work...");
 
 		try {
-			while (pending > 0) {
+			while (pending.get() > 0) {
 				this.wait();
-				log.debug("Woke up with pending at {}.", pending);
+				log.debug("Woke up with pending at {}.", pending.get());
 			}
 		}
 		catch (InterruptedException e) {
@@ -105,25 +490,48 @@ public class WorkQueue {
 	}
 
 	/**
-	 * Safely increments the shared pending variable.
+	 * Safely increments the shared pending variable without locking.
 	 */
-	private synchronized void incrementPending() {
-		pending++;
+	private void incrementPending() {
+		pending.incrementAndGet();
 	}
 
 	/**
 	 * Safely decrements the shared pending variable, and wakes up any threads
-	 * waiting for work to be completed.
+	 * waiting for work to be completed. The lock is only taken once the pending
+	 * work reaches zero.
 	 */
-	private synchronized void decrementPending() {
-		assert pending > 0;
-		pending--;
+	private void decrementPending() {
+		int remaining = pending.decrementAndGet();
+		assert remaining >= 0;
 
-		if (pending == 0) {
-			this.notifyAll();
+		if (remaining == 0) {
+			synchronized (this) {
+				this.notifyAll();
+			}
 		}
 	}
 
+	/**
+	 * Creates a group of tasks run on this queue whose completion can be waited
+	 * on separately from the rest of the queue.
+	 *
+	 * @return a new empty task group
+	 */
+	public TaskGroup newGroup() {
+		return newGroup(Priority.NORMAL);
+	}
+
+	/**
+	 * Creates a group of tasks run on this queue with the given priority.
+	 *
+	 * @param priority the order the tasks of the group are taken from the queue in
+	 * @return a new empty task group
+	 */
+	public TaskGroup newGroup(Priority priority) {
+		return new TaskGroup(this, priority);
+	}
+
 	/**
 	 * Asks the queue to shutdown. Any unprocessed work (or tasks) will not be
 	 * finished, but threads in-progress will not be interrupted.
@@ -148,11 +556,18 @@ public class WorkQueue {
 			finish();
 			shutdown();
 
-			for (Worker worker : workers) {
+			// no workers are started after shutdown, and retired workers are already done
+			List<Worker> running;
+			synchronized (tasks) {
+				running = new ArrayList<>(workers);
+			}
+
+			for (Worker worker : running) {
 				worker.join();
 			}
 
 			log.debug("All worker threads terminated.");
+			log.debug("Work queue metrics:{}{}", System.lineSeparator(), getMetrics());
 		}
 		catch (InterruptedException e) {
 			log.error("Warning: Work queue interrupted while joining.");
@@ -162,12 +577,44 @@ public class WorkQueue {
 	}
 
 	/**
-	 * Returns the number of worker threads being used by the work queue.
+	 * Returns the number of worker threads being used by the work queue. This
+	 * changes over time for an adaptive queue.
 	 *
 	 * @return number of worker threads
 	 */
 	public int size() {
-		return workers.length;
+		synchronized (tasks) {
+			return workers.size();
+		}
+	}
+
+	/**
+	 * Returns the most tasks that may wait in the queue at once.
+	 *
+	 * @return the capacity of the queue
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the most tasks that have waited in the queue at once, which shows
+	 * how close the queue came to its capacity.
+	 *
+	 * @return the high-watermark of waiting tasks
+	 */
+	public int highWatermark() {
+		return metrics.getPeakDepth();
+	}
+
+	/**
+	 * Returns how long tasks have waited and run on this queue, and how busy
+	 * each worker has been. The metrics keep updating while the queue runs.
+	 *
+	 * @return the metrics of this queue
+	 */
+	public QueueMetrics getMetrics() {
+		return metrics;
 	}
 
 	/**
@@ -176,7 +623,125 @@ public class WorkQueue {
 	 * @return number of remaining tasks in work queue
 	 */
 	public int remaining() {
-		return pending;
+		return pending.get();
+	}
+
+	/**
+	 * The waiting tasks, with a first-in first-out lane for each priority. Tasks
+	 * are taken from the highest priority lane that has any, except that a lane
+	 * passed over {@link #STARVATION_LIMIT} times in a row is served next. Not
+	 * thread safe; the queue also uses this as the lock for its tasks.
+	 */
+	private static class Lanes {
+		/** The waiting tasks of each priority, by priority ordinal. */
+		private final List<LinkedList<Queued>> lanes;
+
+		/** How many times each lane was passed over while it had tasks. */
+		private final int[] skipped;
+
+		/** The total number of waiting tasks. */
+		private int size;
+
+		/**
+		 * Initializes an empty lane for every priority.
+		 */
+		public Lanes() {
+			this.lanes = new ArrayList<>();
+			for (int i = 0; i < Priority.values().length; i++) {
+				lanes.add(new LinkedList<>());
+			}
+			this.skipped = new int[lanes.size()];
+			this.size = 0;
+		}
+
+		/**
+		 * Adds a task to the end of its lane.
+		 *
+		 * @param task the task to add
+		 * @param priority the lane to add it to
+		 */
+		public void add(Runnable task, Priority priority) {
+			lanes.get(priority.ordinal()).addLast(new Queued(task, System.nanoTime()));
+			size++;
+		}
+
+		/**
+		 * Removes the next task to run. Should only be called if not empty.
+		 *
+		 * @return the next task
+		 */
+		public Queued poll() {
+			// the lowest starved lane goes first, since it has waited the longest
+			for (int i = lanes.size() - 1; i > 0; i--) {
+				if (skipped[i] >= STARVATION_LIMIT && !lanes.get(i).isEmpty()) {
+					return take(i);
+				}
+			}
+
+			int first = 0;
+			while (lanes.get(first).isEmpty()) {
+				first++;
+			}
+			return take(first);
+		}
+
+		/**
+		 * Removes the first task of a lane and counts every other lane with tasks
+		 * as passed over.
+		 *
+		 * @param lane the lane to take from
+		 * @return the first task of the lane
+		 */
+		private Queued take(int lane) {
+			for (int i = 0; i < lanes.size(); i++) {
+				if (i != lane && !lanes.get(i).isEmpty()) {
+					skipped[i]++;
+				}
+			}
+			skipped[lane] = 0;
+			size--;
+			return lanes.get(lane).removeFirst();
+		}
+
+		/**
+		 * Returns the total number of waiting tasks.
+		 *
+		 * @return the number of waiting tasks
+		 */
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * Determines if no tasks are waiting.
+		 *
+		 * @return true if no tasks are waiting
+		 */
+		public boolean isEmpty() {
+			return size == 0;
+		}
+	}
+
+	/**
+	 * A waiting task and when it was added to the queue.
+	 */
+	private static class Queued {
+		/** The waiting task. */
+		private final Runnable task;
+
+		/** When the task was added, from {@link System#nanoTime()}. */
+		private final long enqueued;
+
+		/**
+		 * Initializes a waiting task.
+		 *
+		 * @param task the waiting task
+		 * @param enqueued when the task was added
+		 */
+		public Queued(Runnable task, long enqueued) {
+			this.task = task;
+			this.enqueued = enqueued;
+		}
 	}
 
 	/**
@@ -190,23 +755,34 @@ public class WorkQueue {
 	 * is requested.
 	 */
 	private class Worker extends Thread {
+		/** The statistics of this worker. */
+		private final QueueMetrics.WorkerStats stats;
+
 		/**
 		 * Initializes a worker thread with a custom name.
 		 */
 		public Worker() {
 			setName("Worker" + getName());
+			this.stats = metrics.worker(getName());
 		}
 
 		@Override
 		public void run() {
 			Runnable task = null;
+			long enqueued = 0;
+			long wall = 0;
+			long cpu = 0;
 
 			try {
 				while (true) {
 					synchronized (tasks) {
-						while (tasks.isEmpty() && !shutdown) {
-							log.debug("Work queue worker waiting...");
-							tasks.wait();
+						if (task != null && isAdaptive()) {
+							sample(wall, cpu);
+							grow();
+						}
+
+						if (!awaitTask()) {
+							break;
 						}
 
 						// exit while for one of two reasons:
@@ -216,23 +792,45 @@ public class WorkQueue {
 							log.debug("Worker detected shutdown...");
 							break;
 						}
+						else if (isAdaptive() && workers.size() > targetSize()) {
+							log.debug("Worker retiring since the tasks are CPU bound...");
+							workers.remove(this);
+							break;
+						}
 						else {
-							task = tasks.removeFirst();
+							Queued next = tasks.poll();
+							task = next.task;
+							enqueued = next.enqueued;
+
+							// wakes any producers waiting for room
+							if (capacity != UNBOUNDED) {
+								tasks.notifyAll();
+							}
 						}
 					}
 
+					long start = System.nanoTime();
+					long startCpu = isAdaptive() ? cpuTime() : 0;
+					boolean failed = false;
+					metrics.recordWait(start - enqueued);
+
 					try {
 						log.trace("Work queue worker found work.");
 						task.run();
 					}
 					catch (RuntimeException e) {
 						// catch runtime exceptions to avoid leaking threads
+						failed = true;
 						log.error("Warning: Worker thread %s encountered an exception while running.%n", this.getName());
 						log.catching(Level.DEBUG, e);
 					}
 					finally {
 						decrementPending();
 					}
+
+					wall = System.nanoTime() - start;
+					metrics.recordRun(stats, wall, failed);
+					cpu = isAdaptive() ? cpuTime() - startCpu : 0;
 				}
 			}
 			catch (InterruptedException e) {
@@ -243,5 +841,49 @@ public class WorkQueue {
 
 			log.debug("Worker thread terminating...");
 		}
+
+		/**
+		 * Waits until the queue has work or is shut down. An extra worker of an
+		 * adaptive queue stops waiting once it has been idle for the keep alive
+		 * time, and removes itself from the workers. Must be called while holding
+		 * the lock on the tasks.
+		 *
+		 * @return false if this worker retired
+		 * @throws InterruptedException from {@link Object#wait()}
+		 */
+		private boolean awaitTask() throws InterruptedException {
+			long idleSince = System.nanoTime();
+			idle++;
+
+			try {
+				while (tasks.isEmpty() && !shutdown) {
+					long left = keepAlive - (System.nanoTime() - idleSince);
+
+					if (isAdaptive() && left <= 0 && workers.size() > minThreads) {
+						log.debug("Worker retiring after being idle...");
+						workers.remove(this);
+
+						// the next burst of tasks may be nothing like the last one
+						if (workers.size() == minThreads) {
+							utilization = -1;
+						}
+						return false;
+					}
+
+					log.debug("Work queue worker waiting...");
+					if (isAdaptive() && left > 0) {
+						TimeUnit.NANOSECONDS.timedWait(tasks, left);
+					}
+					else {
+						tasks.wait();
+					}
+				}
+			}
+			finally {
+				idle--;
+				stats.recordIdle(System.nanoTime() - idleSince);
+			}
+			return true;
+		}
 	}
 }